@@ -0,0 +1,124 @@
+package com.google.android.apps.common.testing.testrunner;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+
+/**
+ * Turns off animations inside the instrumented process for the duration of a test run.
+ *
+ * Animators are shortened by setting the process wide animator duration scale to zero, so every
+ * ValueAnimator / ObjectAnimator ends on its first frame instead of posting frames for hundreds of
+ * milliseconds. Activity transitions are skipped by launching activities with
+ * FLAG_ACTIVITY_NO_ANIMATION and by overriding the exit transition of activities the
+ * instrumentation finishes itself.
+ *
+ * Nothing here changes device settings - the global window and transition animation scales can
+ * only be written with the SET_ANIMATION_SCALE permission, which test apks do not hold.
+ */
+final class AnimationSuppressor {
+  private static final String LOG_TAG = "AnimationSuppressor";
+  private static final String DURATION_SCALE_FIELD_NAME = "sDurationScale";
+
+  private Field durationScaleField;
+  private float originalDurationScale = 1.0f;
+  private volatile boolean suppressing = false;
+  private final Runnable reapplyTask = new Runnable() {
+    @Override
+    public void run() {
+      reapply();
+    }
+  };
+
+  /**
+   * Zeroes the animator duration scale and starts stripping transitions from activity launches.
+   */
+  synchronized void suppress() {
+    if (suppressing) {
+      return;
+    }
+    suppressing = true;
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+      // no property animators before honeycomb.
+      return;
+    }
+    try {
+      Field field = Class.forName("android.animation.ValueAnimator")
+          .getDeclaredField(DURATION_SCALE_FIELD_NAME);
+      field.setAccessible(true);
+      originalDurationScale = field.getFloat(null);
+      field.setFloat(null, 0.0f);
+      durationScaleField = field;
+      Log.i(LOG_TAG, "Animator duration scale was: " + originalDurationScale + " now: 0");
+    } catch (ClassNotFoundException cnfe) {
+      Log.w(LOG_TAG, "Could not suppress animators.", cnfe);
+    } catch (NoSuchFieldException nsfe) {
+      Log.w(LOG_TAG, "Could not suppress animators.", nsfe);
+    } catch (IllegalAccessException iae) {
+      Log.w(LOG_TAG, "Could not suppress animators.", iae);
+    }
+  }
+
+  /**
+   * Zeroes the animator duration scale again once the current main thread message is done.
+   *
+   * The framework resets the scale from the device setting when the process opens its first
+   * window - which happens right after an activity is resumed - so this is called every time an
+   * activity resumes.
+   */
+  void reapplyAfter(Handler mainHandler) {
+    if (suppressing) {
+      mainHandler.post(reapplyTask);
+    }
+  }
+
+  private synchronized void reapply() {
+    if (suppressing && null != durationScaleField) {
+      try {
+        durationScaleField.setFloat(null, 0.0f);
+      } catch (IllegalAccessException iae) {
+        Log.w(LOG_TAG, "Could not suppress animators.", iae);
+      }
+    }
+  }
+
+  /**
+   * Puts the original animator duration scale back.
+   */
+  synchronized void restore() {
+    if (!suppressing) {
+      return;
+    }
+    suppressing = false;
+    if (null != durationScaleField) {
+      try {
+        durationScaleField.setFloat(null, originalDurationScale);
+      } catch (IllegalAccessException iae) {
+        Log.w(LOG_TAG, "Could not restore animator duration scale.", iae);
+      }
+      durationScaleField = null;
+    }
+  }
+
+  /**
+   * Asks the system not to animate the transition to the activity the intent launches.
+   */
+  void prepareLaunch(Intent intent) {
+    if (suppressing && null != intent) {
+      intent.addFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION);
+    }
+  }
+
+  /**
+   * Asks the system not to animate the transition away from an activity which was just finished.
+   */
+  void afterFinish(Activity activity) {
+    if (suppressing) {
+      activity.overridePendingTransition(0, 0);
+    }
+  }
+}
@@ -107,6 +107,10 @@ GoogleInstrumentation
       }
     }
 
+    if (Boolean.parseBoolean(arguments.getString("disableAnimations"))) {
+      disableAnimations();
+    }
+
     Log.i(LOG_TAG, "Test Started!");
 
 
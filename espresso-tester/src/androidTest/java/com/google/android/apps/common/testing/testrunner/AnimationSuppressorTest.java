@@ -0,0 +1,75 @@
+package com.google.android.apps.common.testing.testrunner;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+
+import java.lang.reflect.Field;
+
+/** Unit tests for {@link AnimationSuppressor}. */
+public class AnimationSuppressorTest extends InstrumentationTestCase {
+
+  private final AnimationSuppressor suppressor = new AnimationSuppressor();
+  private Field durationScaleField;
+  private float durationScaleBeforeTest;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      durationScaleField = Class.forName("android.animation.ValueAnimator")
+          .getDeclaredField("sDurationScale");
+      durationScaleField.setAccessible(true);
+      durationScaleBeforeTest = durationScaleField.getFloat(null);
+    }
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    suppressor.restore();
+    if (null != durationScaleField) {
+      durationScaleField.setFloat(null, durationScaleBeforeTest);
+    }
+    super.tearDown();
+  }
+
+  public void testDurationScaleZeroedAndRestored() throws Exception {
+    if (null == durationScaleField) {
+      // no property animators before honeycomb.
+      return;
+    }
+    durationScaleField.setFloat(null, 2.0f);
+
+    suppressor.suppress();
+    assertEquals(0.0f, durationScaleField.getFloat(null));
+
+    suppressor.restore();
+    assertEquals(2.0f, durationScaleField.getFloat(null));
+  }
+
+  public void testReappliedAfterFrameworkReset() throws Exception {
+    if (null == durationScaleField) {
+      return;
+    }
+    suppressor.suppress();
+    // what the framework does when the process opens its first window.
+    durationScaleField.setFloat(null, 1.0f);
+
+    suppressor.reapplyAfter(new Handler(Looper.getMainLooper()));
+    getInstrumentation().waitForIdleSync();
+    assertEquals(0.0f, durationScaleField.getFloat(null));
+  }
+
+  public void testLaunchesNotAnimatedOnlyWhileSuppressing() {
+    Intent intent = new Intent();
+    suppressor.prepareLaunch(intent);
+    assertEquals(0, intent.getFlags() & Intent.FLAG_ACTIVITY_NO_ANIMATION);
+
+    suppressor.suppress();
+    suppressor.prepareLaunch(intent);
+    assertEquals(Intent.FLAG_ACTIVITY_NO_ANIMATION,
+        intent.getFlags() & Intent.FLAG_ACTIVITY_NO_ANIMATION);
+  }
+}
@@ -1,11 +1,14 @@
 package com.google.android.apps.common.testing.ui.espresso;
 
+import static com.google.android.apps.common.testing.ui.espresso.Espresso.onBatch;
 import static com.google.android.apps.common.testing.ui.espresso.Espresso.onData;
 import static com.google.android.apps.common.testing.ui.espresso.Espresso.onView;
 import static com.google.android.apps.common.testing.ui.espresso.Espresso.openActionBarOverflowOrOptionsMenu;
 import static com.google.android.apps.common.testing.ui.espresso.Espresso.openContextualActionModeOverflowMenu;
 import static com.google.android.apps.common.testing.ui.espresso.action.ViewActions.click;
+import static com.google.android.apps.common.testing.ui.espresso.action.ViewActions.typeText;
 import static com.google.android.apps.common.testing.ui.espresso.assertion.ViewAssertions.matches;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isDisplayed;
 import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withId;
 import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withText;
 import static org.hamcrest.Matchers.allOf;
@@ -29,6 +32,7 @@ import org.hamcrest.Matcher;
 
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests Espresso top level (i.e. ones not specific to a view) actions like pressBack and
@@ -112,6 +116,36 @@ public class EspressoTest extends ActivityInstrumentationTestCase2<MainActivity>
     assertTrue(handled.get());
   }
 
+  @SuppressWarnings("unchecked")
+  public void testInteractionBatch() {
+    onData(allOf(instanceOf(Map.class), hasValue(SendActivity.class.getSimpleName())))
+        .perform(click());
+
+    onBatch()
+        .perform(withId(R.id.send_data_to_call_edit_text), typeText("123"))
+        .check(withId(R.id.send_data_to_call_edit_text), matches(withText("123")))
+        .perform(withId(R.id.send_data_to_message_edit_text), typeText("hello"))
+        .check(withId(R.id.send_data_to_message_edit_text), matches(withText("hello")))
+        .run();
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testInteractionBatchReportsFailingStep() {
+    final AtomicReference<Matcher<View>> failedMatcher = new AtomicReference<Matcher<View>>();
+    Espresso.setFailureHandler(new FailureHandler() {
+      @Override
+      public void handle(Throwable error, Matcher<View> viewMatcher) {
+        failedMatcher.set(viewMatcher);
+      }
+    });
+    Matcher<View> missing = withText("does not exist");
+    onBatch()
+        .check(withId(android.R.id.list), matches(isDisplayed()))
+        .perform(missing, click())
+        .run();
+    assertSame(missing, failedMatcher.get());
+  }
+
   public void testRegisterResourceWithNullName() {
     try {
       Espresso.registerIdlingResources(new IdlingResource() {
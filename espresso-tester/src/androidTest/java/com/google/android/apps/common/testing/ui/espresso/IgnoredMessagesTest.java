@@ -0,0 +1,66 @@
+package com.google.android.apps.common.testing.ui.espresso;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link IgnoredMessages}.
+ */
+public class IgnoredMessagesTest extends TestCase {
+
+  private static class HeartbeatHandler extends Handler {
+    HeartbeatHandler() {
+      super(Looper.getMainLooper());
+    }
+  }
+
+  private static class BlinkRunnable implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  private final Handler heartbeatHandler = new HeartbeatHandler();
+  private final Handler plainHandler = new Handler(Looper.getMainLooper());
+
+  public void testNoneMatchesNothing() {
+    assertTrue(IgnoredMessages.NONE.isEmpty());
+    assertFalse(IgnoredMessages.NONE.matches(Message.obtain(heartbeatHandler, 1)));
+  }
+
+  public void testHandlerRuleMatchesAnyWhat() {
+    IgnoredMessages ignored = IgnoredMessages.NONE.withHandler(HeartbeatHandler.class);
+    assertFalse(ignored.isEmpty());
+    assertTrue(ignored.matches(Message.obtain(heartbeatHandler, 1)));
+    assertTrue(ignored.matches(Message.obtain(heartbeatHandler, 42)));
+    assertFalse(ignored.matches(Message.obtain(plainHandler, 1)));
+  }
+
+  public void testHandlerMessageRuleMatchesOnlyThatWhat() {
+    IgnoredMessages ignored = IgnoredMessages.NONE
+        .withHandlerMessage(HeartbeatHandler.class, 7)
+        .withHandlerMessage(HeartbeatHandler.class, 3);
+    assertTrue(ignored.matches(Message.obtain(heartbeatHandler, 3)));
+    assertTrue(ignored.matches(Message.obtain(heartbeatHandler, 7)));
+    assertFalse(ignored.matches(Message.obtain(heartbeatHandler, 5)));
+  }
+
+  public void testCallbackRuleMatchesAnyHandler() {
+    IgnoredMessages ignored = IgnoredMessages.NONE.withCallback(BlinkRunnable.class);
+    assertTrue(ignored.matches(Message.obtain(plainHandler, new BlinkRunnable())));
+    assertTrue(ignored.matches(Message.obtain(heartbeatHandler, new BlinkRunnable())));
+    assertFalse(ignored.matches(Message.obtain(plainHandler, new Runnable() {
+      @Override
+      public void run() {}
+    })));
+  }
+
+  public void testRulesAreImmutable() {
+    IgnoredMessages ignored = IgnoredMessages.NONE.withHandler(HeartbeatHandler.class);
+    ignored.withCallback(BlinkRunnable.class);
+    assertTrue(IgnoredMessages.NONE.isEmpty());
+    assertFalse(ignored.matches(Message.obtain(plainHandler, new BlinkRunnable())));
+  }
+}
@@ -12,6 +12,8 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 import com.google.android.apps.common.testing.testrunner.ActivityLifecycleMonitor;
 import com.google.android.apps.common.testing.testrunner.ActivityLifecycleMonitorRegistry;
+import com.google.android.apps.common.testing.ui.espresso.base.IdleWaitMetrics;
+import com.google.android.apps.common.testing.ui.espresso.base.MainThreadWatchdog;
 import com.google.android.apps.common.testing.ui.espresso.matcher.RootMatchers;
 import com.jameswald.skinnylatte.common.base.Optional;
 import com.jameswald.skinnylatte.common.util.concurrent.MoreExecutors;
@@ -191,7 +193,8 @@ public class ViewInteractionTest extends AndroidTestCase {
     when(mockAction.getConstraints()).thenReturn(actionConstraint);
 
     testInteraction = new ViewInteraction(mockUiController, mockViewFinder, testExecutor,
-        failureHandler, viewMatcher, rootMatcherRef);
+        failureHandler, viewMatcher, rootMatcherRef, new IdleWaitMetrics(),
+        new MainThreadWatchdog(Looper.getMainLooper()));
 
   }
 }
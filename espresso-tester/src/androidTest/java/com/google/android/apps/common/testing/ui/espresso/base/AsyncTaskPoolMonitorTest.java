@@ -2,6 +2,7 @@ package com.google.android.apps.common.testing.ui.espresso.base;
 
 import junit.framework.TestCase;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.FutureTask;
@@ -160,4 +161,144 @@ public class AsyncTaskPoolMonitorTest extends TestCase {
     assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
     assertTrue(monitor.isIdleNow());
   }
+
+  public void testTrackedPool_idleNotification() throws Exception {
+    AsyncTaskPoolMonitor trackedMonitor = new AsyncTaskPoolMonitor(testThreadPool,
+        CountingTaskQueue.install(testThreadPool));
+    // nothing untracked is running, from here on the tracker is used.
+    assertTrue(trackedMonitor.isIdleNow());
+
+    final CountDownLatch runLatch = new CountDownLatch(1);
+    final CountDownLatch exitLatch = new CountDownLatch(1);
+    testThreadPool.submit(new Runnable() {
+      @Override
+      public void run() {
+        runLatch.countDown();
+        try {
+          exitLatch.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+    assertTrue(runLatch.await(1, TimeUnit.SECONDS));
+    assertFalse(trackedMonitor.isIdleNow());
+
+    final CountDownLatch notificationLatch = new CountDownLatch(1);
+    trackedMonitor.notifyWhenIdle(new Runnable() {
+      @Override
+      public void run() {
+        notificationLatch.countDown();
+      }
+    });
+    // no barrier tasks are queued behind the running task.
+    assertTrue(testThreadPool.getQueue().isEmpty());
+    assertFalse(notificationLatch.await(100, TimeUnit.MILLISECONDS));
+    exitLatch.countDown();
+    assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(trackedMonitor.isIdleNow());
+  }
+
+  public void testTrackedPool_removedTaskIsUntracked() throws Exception {
+    ThreadPoolExecutor singleThreadPool = new ThreadPoolExecutor(
+        1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    try {
+      AsyncTaskPoolMonitor trackedMonitor = new AsyncTaskPoolMonitor(singleThreadPool,
+          CountingTaskQueue.install(singleThreadPool));
+      assertTrue(trackedMonitor.isIdleNow());
+
+      final CountDownLatch exitLatch = new CountDownLatch(1);
+      singleThreadPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            exitLatch.await();
+          } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+          }
+        }
+      });
+      Runnable neverRun = new Runnable() {
+        @Override
+        public void run() {
+          fail("Removed task should not run.");
+        }
+      };
+      singleThreadPool.execute(neverRun);
+      assertTrue(singleThreadPool.remove(neverRun));
+      exitLatch.countDown();
+
+      final CountDownLatch notificationLatch = new CountDownLatch(1);
+      trackedMonitor.notifyWhenIdle(new Runnable() {
+        @Override
+        public void run() {
+          notificationLatch.countDown();
+        }
+      });
+      assertTrue(notificationLatch.await(1, TimeUnit.SECONDS));
+    } finally {
+      singleThreadPool.shutdownNow();
+    }
+  }
+
+  public void testGrowingPool_handedOffTaskIsSeen() throws Exception {
+    // like the AsyncTask pools: once the bounded queue is full, the pool grows beyond its core
+    // size and hands the task straight to a new thread.
+    ThreadPoolExecutor growingPool = new ThreadPoolExecutor(
+        1, 2, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+    try {
+      assertFalse(CountingTaskQueue.install(growingPool).isPresent());
+      AsyncTaskPoolMonitor growingMonitor = new AsyncTaskPoolMonitor(growingPool,
+          CountingTaskQueue.install(growingPool));
+
+      final CountDownLatch firstExitLatch = new CountDownLatch(1);
+      growingPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            firstExitLatch.await();
+          } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+          }
+        }
+      });
+      FutureTask<Void> queuedTask = new FutureTask<Void>(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, null);
+      growingPool.execute(queuedTask);
+
+      final CountDownLatch handedOffRunLatch = new CountDownLatch(1);
+      final CountDownLatch handedOffExitLatch = new CountDownLatch(1);
+      growingPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          handedOffRunLatch.countDown();
+          try {
+            handedOffExitLatch.await();
+          } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+          }
+        }
+      });
+      assertTrue(handedOffRunLatch.await(1, TimeUnit.SECONDS));
+      assertEquals(2, growingPool.getPoolSize());
+
+      firstExitLatch.countDown();
+      queuedTask.get(1, TimeUnit.SECONDS);
+      // the queue is drained, but the handed off task is still running.
+      assertTrue(growingPool.getQueue().isEmpty());
+      assertFalse(growingMonitor.isIdleNow());
+
+      handedOffExitLatch.countDown();
+      long deadline = System.currentTimeMillis() + 1000;
+      while (!growingMonitor.isIdleNow()) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+    } finally {
+      growingPool.shutdownNow();
+    }
+  }
 }
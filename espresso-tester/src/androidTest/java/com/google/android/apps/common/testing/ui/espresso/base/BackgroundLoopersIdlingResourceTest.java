@@ -0,0 +1,184 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource.ResourceCallback;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.test.InstrumentationTestCase;
+import android.util.Printer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link BackgroundLoopersIdlingResource}.
+ */
+public class BackgroundLoopersIdlingResourceTest extends InstrumentationTestCase {
+
+  private HandlerThread first;
+  private HandlerThread second;
+  private BackgroundLoopersIdlingResource resource;
+  private Semaphore idleTransitions;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    first = new HandlerThread("first");
+    first.start();
+    second = new HandlerThread("second");
+    second.start();
+    resource = new BackgroundLoopersIdlingResource(Looper.getMainLooper());
+    idleTransitions = new Semaphore(0);
+    resource.registerIdleTransitionCallback(new ResourceCallback() {
+      @Override
+      public void onTransitionToIdle() {
+        idleTransitions.release();
+      }
+    });
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    first.quit();
+    second.quit();
+    super.tearDown();
+  }
+
+  public void testIdleOnceAllLoopersAreIdle() throws Exception {
+    assertTrue(resource.addLooper(first.getLooper()));
+    assertTrue(resource.addLooper(second.getLooper()));
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+
+    CountDownLatch running = new CountDownLatch(2);
+    CountDownLatch firstExit = new CountDownLatch(1);
+    CountDownLatch secondExit = new CountDownLatch(1);
+    new Handler(first.getLooper()).post(new BlockingTask(running, firstExit));
+    new Handler(second.getLooper()).post(new BlockingTask(running, secondExit));
+    assertTrue(running.await(2, TimeUnit.SECONDS));
+    assertFalse(resource.isIdleNow());
+
+    firstExit.countDown();
+    assertFalse(idleTransitions.tryAcquire(200, TimeUnit.MILLISECONDS));
+    assertFalse(resource.isIdleNow());
+
+    secondExit.countDown();
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testAddLooperTwice() {
+    assertTrue(resource.addLooper(first.getLooper()));
+    assertFalse(resource.addLooper(first.getLooper()));
+  }
+
+  public void testBusyAgainOnceIdle() throws Exception {
+    assertTrue(resource.addLooper(first.getLooper()));
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch exit = new CountDownLatch(1);
+    new Handler(first.getLooper()).post(new BlockingTask(running, exit));
+    assertTrue(running.await(2, TimeUnit.SECONDS));
+    assertFalse(resource.isIdleNow());
+    assertFalse(idleTransitions.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+    exit.countDown();
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testAppPrinterLeftAlone() throws Exception {
+    final List<String> printed = new CopyOnWriteArrayList<String>();
+    first.getLooper().setMessageLogging(new Printer() {
+      @Override
+      public void println(String line) {
+        printed.add(line);
+      }
+    });
+    resource.addLooper(first.getLooper());
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch exit = new CountDownLatch(1);
+    new Handler(first.getLooper()).post(new BlockingTask(running, exit));
+    assertTrue(running.await(2, TimeUnit.SECONDS));
+    assertFalse(resource.isIdleNow());
+    exit.countDown();
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+
+    boolean taskPrinted = false;
+    for (String line : printed) {
+      taskPrinted |= line.contains(BlockingTask.class.getName());
+    }
+    assertTrue(printed.toString(), taskPrinted);
+  }
+
+  public void testPrinterSetWhileIdleIsChained() throws Exception {
+    assertTrue(resource.addLooper(first.getLooper()));
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+
+    final List<String> printed = new CopyOnWriteArrayList<String>();
+    first.getLooper().setMessageLogging(new Printer() {
+      @Override
+      public void println(String line) {
+        printed.add(line);
+      }
+    });
+    // the first dispatch after the printer was replaced goes unseen, it is borrowed again after.
+    Handler handler = new Handler(first.getLooper());
+    waitForIdleHandlers(handler);
+
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch exit = new CountDownLatch(1);
+    handler.post(new BlockingTask(running, exit));
+    assertTrue(running.await(2, TimeUnit.SECONDS));
+    assertFalse(resource.isIdleNow());
+    exit.countDown();
+    assertTrue(idleTransitions.tryAcquire(2, TimeUnit.SECONDS));
+    // before and after each of the two dispatches.
+    assertEquals(printed.toString(), 4, printed.size());
+  }
+
+  private static void waitForIdleHandlers(Handler handler) throws InterruptedException {
+    final CountDownLatch idled = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+          @Override
+          public boolean queueIdle() {
+            idled.countDown();
+            return false;
+          }
+        });
+      }
+    });
+    assertTrue(idled.await(2, TimeUnit.SECONDS));
+  }
+
+  private static class BlockingTask implements Runnable {
+    private final CountDownLatch runLatch;
+    private final CountDownLatch exitLatch;
+
+    BlockingTask(CountDownLatch runLatch, CountDownLatch exitLatch) {
+      this.runLatch = runLatch;
+      this.exitLatch = exitLatch;
+    }
+
+    @Override
+    public void run() {
+      runLatch.countDown();
+      try {
+        exitLatch.await();
+      } catch (InterruptedException ie) {
+        throw new RuntimeException(ie);
+      }
+    }
+  }
+}
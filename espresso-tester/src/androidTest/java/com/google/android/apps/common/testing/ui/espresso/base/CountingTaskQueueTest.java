@@ -0,0 +1,93 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link CountingTaskQueue}. */
+public class CountingTaskQueueTest extends TestCase {
+
+  private static final Runnable NOOP = new Runnable() {
+    @Override
+    public void run() {}
+  };
+
+  private ThreadPoolExecutor pool;
+  private TaskTracker tracker;
+  private CountDownLatch releaseWorker;
+  private CountDownLatch wentIdle;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    tracker = TaskTracker.forPool(pool).get();
+    wentIdle = new CountDownLatch(1);
+    tracker.addIdleTransitionCallback(new Runnable() {
+      @Override
+      public void run() {
+        wentIdle.countDown();
+      }
+    });
+    releaseWorker = new CountDownLatch(1);
+    // keeps the only worker busy, so later tasks stay queued.
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          releaseWorker.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    releaseWorker.countDown();
+    pool.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testClearUntracks() throws Exception {
+    pool.execute(NOOP);
+    pool.execute(NOOP);
+    pool.getQueue().clear();
+    assertFinishedAndIdle();
+  }
+
+  public void testPurgeRemovesCancelledFutures() throws Exception {
+    Future<?> future = pool.submit(NOOP);
+    assertTrue(pool.getQueue().contains(future));
+    future.cancel(false);
+    pool.purge();
+    assertEquals(0, pool.getQueue().size());
+    assertFinishedAndIdle();
+  }
+
+  public void testRemoveUntracks() throws Exception {
+    pool.execute(NOOP);
+    assertTrue(pool.remove(NOOP));
+    assertFinishedAndIdle();
+  }
+
+  public void testDrainedTasksAreUnwrapped() throws Exception {
+    pool.execute(NOOP);
+    List<Runnable> drained = pool.shutdownNow();
+    assertEquals(1, drained.size());
+    assertSame(NOOP, drained.get(0));
+  }
+
+  private void assertFinishedAndIdle() throws InterruptedException {
+    assertFalse(tracker.isIdleNow());
+    releaseWorker.countDown();
+    assertTrue(wentIdle.await(5, TimeUnit.SECONDS));
+    assertTrue(tracker.isIdleNow());
+  }
+}
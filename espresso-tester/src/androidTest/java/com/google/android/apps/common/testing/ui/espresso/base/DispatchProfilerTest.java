@@ -0,0 +1,80 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.test.InstrumentationTestCase;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link DispatchProfiler}.
+ */
+public class DispatchProfilerTest extends InstrumentationTestCase {
+
+  private static class SlowHandler extends Handler {
+    SlowHandler() {
+      super(Looper.getMainLooper());
+    }
+  }
+
+  private static class SlowRunnable implements Runnable {
+    @Override
+    public void run() {}
+  }
+
+  private DispatchProfiler profiler;
+  private Handler handler;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    profiler = new DispatchProfiler(getInstrumentation().getTargetContext());
+    handler = new SlowHandler();
+  }
+
+  public void testRecordIgnoredWhenNotProfiling() {
+    profiler.record(Message.obtain(handler, new SlowRunnable()), 10);
+    profiler.start("ignored");
+    String report = profiler.stop();
+    assertFalse(report, report.contains(SlowHandler.class.getName()));
+    assertFalse(report, report.contains(SlowRunnable.class.getName()));
+  }
+
+  public void testAggregatesByTargetAndCallback() {
+    profiler.start("aggregates");
+    profiler.record(Message.obtain(handler, 1), TimeUnit.MILLISECONDS.toNanos(3));
+    profiler.record(Message.obtain(handler, new SlowRunnable()),
+        TimeUnit.MILLISECONDS.toNanos(600));
+    String report = profiler.stop();
+
+    assertTrue(report, report.contains(
+        SlowHandler.class.getName() + " count: 2 total: 603ms max: 600ms"));
+    assertTrue(report, report.contains("<4ms: 1"));
+    assertTrue(report, report.contains(">=512ms: 1"));
+    assertTrue(report, report.contains(
+        SlowRunnable.class.getName() + " count: 1 total: 600ms max: 600ms"));
+  }
+
+  public void testStopWritesProfile() {
+    profiler.start("some.Test#testWrites");
+    String report = profiler.stop();
+    File profile = new File(new File(getInstrumentation().getTargetContext().getFilesDir(),
+        DispatchProfiler.PROFILE_DIR), "some.Test_testWrites.txt");
+    assertTrue(profile.exists());
+    assertEquals(report.length(), profile.length());
+    profile.delete();
+  }
+
+  public void testStartWhileProfilingFails() {
+    profiler.start("first");
+    try {
+      profiler.start("second");
+      fail("should have thrown");
+    } catch (IllegalStateException expected) {
+    } finally {
+      profiler.stop();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import com.jameswald.skinnylatte.common.base.Optional;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.Choreographer;
+import android.view.Choreographer.FrameCallback;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link FrameClock}.
+ */
+public class FrameClockTest extends InstrumentationTestCase {
+
+  public void testAbsentBeforeJellyBean() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      return;
+    }
+    assertFalse(FrameClock.forCurrentThread().isPresent());
+  }
+
+  public void testFramePendingUntilDrawn() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      return;
+    }
+    final AtomicReference<Boolean> pendingAfterPost = new AtomicReference<Boolean>();
+    final AtomicReference<Boolean> pendingDuringFrame = new AtomicReference<Boolean>();
+    getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        final Optional<FrameClock> clock = FrameClock.forCurrentThread();
+        assertTrue(clock.isPresent());
+        Choreographer.getInstance().postFrameCallback(new FrameCallback() {
+          @Override
+          public void doFrame(long frameTimeNanos) {
+            pendingDuringFrame.set(clock.get().isFramePending());
+          }
+        });
+        pendingAfterPost.set(clock.get().isFramePending());
+      }
+    });
+    getInstrumentation().waitForIdleSync();
+    assertTrue(pendingAfterPost.get());
+    assertFalse(pendingDuringFrame.get());
+  }
+
+  public void testNextFrameIsWithinOneInterval() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      return;
+    }
+    getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        long now = SystemClock.uptimeMillis();
+        long nextFrame = FrameClock.forCurrentThread().get().nextFrameUptimeMillis();
+        assertTrue("next frame at: " + nextFrame + " now: " + now, nextFrame >= now);
+        // no display refreshes slower than 10Hz.
+        assertTrue("next frame at: " + nextFrame + " now: " + now, nextFrame <= now + 100);
+      }
+    });
+  }
+}
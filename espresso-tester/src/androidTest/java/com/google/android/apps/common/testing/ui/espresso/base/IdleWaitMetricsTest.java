@@ -0,0 +1,83 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link IdleWaitMetrics}.
+ */
+public class IdleWaitMetricsTest extends TestCase {
+
+  private IdleWaitMetrics metrics;
+  private List<IdleWaitMetrics.InteractionWaits> finished;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    metrics = new IdleWaitMetrics();
+    finished = Lists.newArrayList();
+    metrics.addListener(new IdleWaitMetrics.Listener() {
+      @Override
+      public void onInteractionFinished(IdleWaitMetrics.InteractionWaits waits) {
+        finished.add(waits);
+      }
+    });
+  }
+
+  public void testInteractionWaitsGoToListeners() {
+    metrics.beginInteraction();
+    metrics.recordConditionWait("ASYNC_TASKS_HAVE_IDLED", 30);
+    metrics.recordConditionWait("ASYNC_TASKS_HAVE_IDLED", 5);
+    metrics.recordResourceWait("network", 120);
+    metrics.recordLoop(125);
+    metrics.endInteraction("perform", "click");
+
+    assertEquals(1, finished.size());
+    IdleWaitMetrics.InteractionWaits waits = finished.get(0);
+    assertEquals("perform: click", waits.getInteraction());
+    assertEquals(125, waits.getTotalWaitMillis());
+    assertEquals(Long.valueOf(35), waits.getWaitMillisBySource().get("ASYNC_TASKS_HAVE_IDLED"));
+    assertEquals(Long.valueOf(120), waits.getWaitMillisBySource().get("IdlingResource: network"));
+  }
+
+  public void testWaitsOutsideInteractionsOnlyGoToSummary() {
+    metrics.recordConditionWait(IdleWaitMetrics.MAIN_QUEUE, 10);
+    metrics.endInteraction("never", "began");
+    assertTrue(finished.isEmpty());
+
+    String summary = metrics.summarizeAndReset();
+    assertTrue(summary, summary.contains("MAIN_QUEUE total: 10ms max: 10ms waits: 1"));
+  }
+
+  public void testSubjectNotDescribedWithoutListeners() {
+    IdleWaitMetrics unwatched = new IdleWaitMetrics();
+    unwatched.beginInteraction();
+    unwatched.endInteraction("check", new Object() {
+      @Override
+      public String toString() {
+        throw new AssertionError("described without listeners");
+      }
+    });
+    String summary = unwatched.summarizeAndReset();
+    assertTrue(summary, summary.startsWith("Idle waits over 1 interactions"));
+  }
+
+  public void testSummaryOrderedByTotalAndReset() {
+    metrics.beginInteraction();
+    metrics.recordConditionWait("COMPAT_TASKS_HAVE_IDLED", 5);
+    metrics.recordResourceWait("database", 50);
+    metrics.recordLoop(50);
+    metrics.endInteraction("check", "matches");
+
+    String summary = metrics.summarizeAndReset();
+    assertTrue(summary, summary.startsWith("Idle waits over 1 interactions, total: 50ms"));
+    assertTrue(summary, summary.indexOf("IdlingResource: database")
+        < summary.indexOf("COMPAT_TASKS_HAVE_IDLED"));
+
+    summary = metrics.summarizeAndReset();
+    assertEquals("Idle waits over 0 interactions, total: 0ms", summary);
+  }
+}
@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -71,6 +72,64 @@ public class IdlingResourceRegistryTest extends InstrumentationTestCase {
     assertFalse(resourcesIdle.get());
   }
 
+  public void testUnregister() throws InterruptedException {
+    OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
+    OnDemandIdlingResource r2 = new OnDemandIdlingResource("r2");
+    r2.forceIdleNow();
+    registry.register(r1);
+    registry.register(r2);
+    assertFalse(callAllResourcesAreIdle());
+
+    registry.unregister(r1);
+    assertTrue(callAllResourcesAreIdle());
+
+    // transitions of unregistered resources are ignored.
+    r1.forceIdleNow();
+    r2.reset();
+    assertFalse(callAllResourcesAreIdle());
+
+    // the name can be reused.
+    registry.unregister(r2);
+    OnDemandIdlingResource r2again = new OnDemandIdlingResource("r2");
+    registry.register(r2again);
+    assertFalse(callAllResourcesAreIdle());
+    r2again.forceIdleNow();
+    assertTrue(callAllResourcesAreIdle());
+  }
+
+  public void testUnregisterUnknownResource() throws InterruptedException {
+    OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
+    OnDemandIdlingResource r1dup = new OnDemandIdlingResource("r1");
+    registry.register(r1);
+    registry.unregister(r1dup);
+    assertFalse(callAllResourcesAreIdle());
+  }
+
+  public void testUnregisterBusyResourceNotifiesIdle() throws InterruptedException {
+    final OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
+    registry.register(r1);
+    final CountDownLatch allResourcesIdleLatch = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        registry.notifyWhenAllResourcesAreIdle(new IdleNotificationCallback() {
+          @Override
+          public void resourcesStillBusyWarning(List<String> busyResourceNames) {}
+
+          @Override
+          public void resourcesHaveTimedOut(List<String> busyResourceNames) {}
+
+          @Override
+          public void allResourcesIdle() {
+            allResourcesIdleLatch.countDown();
+          }
+        });
+        registry.unregister(r1);
+      }
+    });
+    assertTrue(allResourcesIdleLatch.await(1, TimeUnit.SECONDS));
+  }
+
   @LargeTest
   public void testAllResourcesAreIdle_RepeatingToIdleTransitions() throws InterruptedException {
     OnDemandIdlingResource r1 = new OnDemandIdlingResource("r1");
@@ -104,6 +163,63 @@ public class IdlingResourceRegistryTest extends InstrumentationTestCase {
     }
   }
 
+  public void testOftenBusyResourcesArePolledFirst() throws InterruptedException {
+    final AtomicInteger alwaysIdlePolls = new AtomicInteger(0);
+    OnDemandIdlingResource alwaysIdle = new OnDemandIdlingResource("alwaysIdle") {
+      @Override
+      public boolean isIdleNow() {
+        alwaysIdlePolls.incrementAndGet();
+        return super.isIdleNow();
+      }
+    };
+    alwaysIdle.forceIdleNow();
+    OnDemandIdlingResource oftenBusy = new OnDemandIdlingResource("oftenBusy");
+    registry.register(alwaysIdle);
+    registry.register(oftenBusy);
+
+    // enough passes for the polling order to be recomputed.
+    for (int i = 0; i < 20; i++) {
+      assertFalse(callAllResourcesAreIdle());
+      oftenBusy.forceIdleNow();
+      oftenBusy.reset();
+    }
+    int pollsBefore = alwaysIdlePolls.get();
+    for (int i = 0; i < 10; i++) {
+      assertFalse(callAllResourcesAreIdle());
+      oftenBusy.forceIdleNow();
+      oftenBusy.reset();
+    }
+    assertEquals(pollsBefore, alwaysIdlePolls.get());
+  }
+
+  public void testUnregisterAfterPollingReordered() throws InterruptedException {
+    OnDemandIdlingResource first = new OnDemandIdlingResource("first");
+    OnDemandIdlingResource oftenBusy = new OnDemandIdlingResource("oftenBusy");
+    OnDemandIdlingResource last = new OnDemandIdlingResource("last");
+    first.forceIdleNow();
+    last.forceIdleNow();
+    registry.register(first);
+    registry.register(oftenBusy);
+    registry.register(last);
+    for (int i = 0; i < 20; i++) {
+      assertFalse(callAllResourcesAreIdle());
+      oftenBusy.forceIdleNow();
+      oftenBusy.reset();
+    }
+    oftenBusy.forceIdleNow();
+    assertTrue(callAllResourcesAreIdle());
+
+    registry.unregister(first);
+    // both remaining resources are still polled.
+    last.reset();
+    assertFalse(callAllResourcesAreIdle());
+    last.forceIdleNow();
+    oftenBusy.reset();
+    assertFalse(callAllResourcesAreIdle());
+    oftenBusy.forceIdleNow();
+    assertTrue(callAllResourcesAreIdle());
+  }
+
   @LargeTest
   public void testNotifyWhenAllResourcesAreIdle_success() throws InterruptedException {
     final CountDownLatch busyWarningLatch = new CountDownLatch(4);
@@ -218,4 +334,18 @@ public class IdlingResourceRegistryTest extends InstrumentationTestCase {
     assertEquals(1, busysFromWarning.get().size());
     assertEquals(1, allResourcesIdleLatch.getCount());
   }
+
+  private boolean callAllResourcesAreIdle() throws InterruptedException {
+    final AtomicBoolean resourcesIdle = new AtomicBoolean(false);
+    final CountDownLatch latch = new CountDownLatch(1);
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        resourcesIdle.set(registry.allResourcesAreIdle());
+        latch.countDown();
+      }
+    });
+    latch.await();
+    return resourcesIdle.get();
+  }
 }
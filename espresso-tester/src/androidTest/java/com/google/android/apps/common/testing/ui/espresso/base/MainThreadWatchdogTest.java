@@ -0,0 +1,79 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingPolicies;
+import com.google.android.apps.common.testing.ui.espresso.MainThreadStalledException;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link MainThreadWatchdog}.
+ */
+public class MainThreadWatchdogTest extends InstrumentationTestCase {
+
+  private long originalStallTimeoutMillis;
+  private MainThreadWatchdog watchdog;
+  private Handler mainHandler;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    originalStallTimeoutMillis = IdlingPolicies.getMainThreadStallTimeoutMillis();
+    IdlingPolicies.setMainThreadStallTimeout(1, TimeUnit.SECONDS);
+    watchdog = new MainThreadWatchdog(Looper.getMainLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    IdlingPolicies.setMainThreadStallTimeout(originalStallTimeoutMillis, TimeUnit.MILLISECONDS);
+    super.tearDown();
+  }
+
+  public void testReturnsResultOfResponsiveMainThread() throws Exception {
+    FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call() {
+        return "done";
+      }
+    });
+    mainHandler.post(task);
+    assertEquals("done", watchdog.await(task));
+  }
+
+  public void testStalledMainThreadFailsWithStackSamples() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+      }
+    });
+    FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call() {
+        return "never";
+      }
+    });
+    mainHandler.post(task);
+    try {
+      watchdog.await(task);
+      fail("Expected main thread stall to be detected.");
+    } catch (MainThreadStalledException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("CountDownLatch.await"));
+    } finally {
+      release.countDown();
+    }
+    assertTrue(task.isCancelled());
+  }
+}
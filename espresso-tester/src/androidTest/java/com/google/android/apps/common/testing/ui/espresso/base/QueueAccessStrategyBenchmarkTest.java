@@ -0,0 +1,78 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of each message dispatched thru a {@link QueueAccessStrategy}.
+ *
+ * The legacy strategy is how espresso pumped the main looper before strategies were introduced, so
+ * the logged numbers are a before / after comparison for UiControllerImpl.loopUntil.
+ */
+public class QueueAccessStrategyBenchmarkTest extends TestCase {
+
+  private static final String TAG = QueueAccessStrategyBenchmarkTest.class.getSimpleName();
+  private static final int MESSAGE_COUNT = 20000;
+  private static final int WARMUP_ROUNDS = 3;
+
+  @LargeTest
+  public void testPerMessageDispatchCost() throws Exception {
+    FutureTask<long[]> benchmark = new FutureTask<long[]>(new Callable<long[]>() {
+      @Override
+      public long[] call() {
+        // We never call Looper.loop(), so we're the only one pulling messages off this queue.
+        Looper.prepare();
+        MessageQueue queue = Looper.myQueue();
+        Handler handler = new Handler();
+        QueueAccessStrategy legacy = QueueInterrogator.accessStrategyFor(queue, Integer.MAX_VALUE);
+        QueueAccessStrategy current = QueueInterrogator.accessStrategyFor(queue,
+            Build.VERSION.SDK_INT);
+
+        long legacyNanos = 0;
+        long currentNanos = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+          legacyNanos = pump(legacy, handler);
+          currentNanos = pump(current, handler);
+        }
+        Looper.myLooper().quit();
+
+        Log.i(TAG, String.format("Per message dispatch cost over %s messages on API %s. before "
+            + "(%s): %sns after (%s): %sns", MESSAGE_COUNT, Build.VERSION.SDK_INT,
+            legacy.getClass().getSimpleName(), legacyNanos, current.getClass().getSimpleName(),
+            currentNanos));
+        return new long[] {legacyNanos, currentNanos};
+      }
+    });
+
+    new Thread(benchmark, TAG).start();
+    long[] perMessageNanos = benchmark.get(2, TimeUnit.MINUTES);
+    assertTrue(perMessageNanos[0] > 0);
+    assertTrue(perMessageNanos[1] > 0);
+  }
+
+  private static long pump(QueueAccessStrategy strategy, Handler handler) {
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      handler.sendEmptyMessage(i);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      Message message = strategy.next();
+      assertEquals(i, message.what);
+      message.getTarget().dispatchMessage(message);
+      message.recycle();
+    }
+    return (System.nanoTime() - start) / MESSAGE_COUNT;
+  }
+}
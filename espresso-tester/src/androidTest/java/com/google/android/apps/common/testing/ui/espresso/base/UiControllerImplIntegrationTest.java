@@ -6,6 +6,7 @@ import com.google.android.apps.common.testing.ui.espresso.util.HumanReadables;
 import com.google.android.apps.common.testing.ui.espresso.tester.R;
 import com.google.android.apps.common.testing.ui.espresso.tester.SendActivity;
 import com.jameswald.skinnylatte.common.base.Optional;
+import com.jameswald.skinnylatte.common.collect.Lists;
 
 import android.app.Activity;
 import android.app.Instrumentation;
@@ -20,9 +21,11 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Test for {@link UiControllerImpl}.
@@ -61,6 +64,9 @@ public class UiControllerImplIntegrationTest
             Looper.getMainLooper()).getAsyncTaskThreadPool()),
         Optional.<AsyncTaskPoolMonitor>absent(),
         new IdlingResourceRegistry(Looper.getMainLooper()),
+        new DispatchTrace(),
+        new DispatchProfiler(getInstrumentation().getTargetContext()),
+        new IdleWaitMetrics(),
         Looper.getMainLooper());
   }
 
@@ -261,6 +267,44 @@ public class UiControllerImplIntegrationTest
     assertTrue(injectEventWorked.get());
   }
 
+  @LargeTest
+  public void testInjectMotionEventSequence() throws InterruptedException {
+    sendActivity = getActivity();
+    final int xy[] = getCoordinatesInMiddleOfSendButton(sendActivity, getInstrumentation());
+    final AtomicLong injectedAt = new AtomicLong();
+
+    getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        long downTime = SystemClock.uptimeMillis();
+        List<MotionEvent> events = Lists.newArrayList();
+        events.add(MotionEvent.obtain(
+            downTime, downTime, MotionEvent.ACTION_DOWN, xy[0], xy[1], 0));
+        events.add(MotionEvent.obtain(
+            downTime, downTime + 100, MotionEvent.ACTION_MOVE, xy[0], xy[1] + 1, 0));
+        events.add(MotionEvent.obtain(
+            downTime, downTime + 200, MotionEvent.ACTION_UP, xy[0], xy[1] + 1, 0));
+        try {
+          injectEventWorked.set(uiController.injectMotionEventSequence(events));
+          injectedAt.set(SystemClock.uptimeMillis() - downTime);
+          latch.countDown();
+        } catch (InjectEventSecurityException e) {
+          injectEventThrewSecurityException.set(true);
+        } finally {
+          for (MotionEvent event : events) {
+            event.recycle();
+          }
+        }
+      }
+    });
+
+    assertFalse("SecurityException exception was thrown.", injectEventThrewSecurityException.get());
+    assertTrue("Timed out!", latch.await(10, TimeUnit.SECONDS));
+    assertTrue(injectEventWorked.get());
+    // the last event is not injected before its event time.
+    assertTrue(injectedAt.get() >= 200);
+  }
+
   static int[] getCoordinatesInMiddleOfSendButton(
       Activity activity, Instrumentation instrumentation) {
     final View sendButton = activity.findViewById(R.id.send_button);
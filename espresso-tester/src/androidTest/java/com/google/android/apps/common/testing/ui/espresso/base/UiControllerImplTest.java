@@ -1,14 +1,19 @@
 package com.google.android.apps.common.testing.ui.espresso.base;
 
+import com.google.android.apps.common.testing.testrunner.InstrumentationRegistry;
 import com.google.android.apps.common.testing.ui.espresso.IdlingResourceTimeoutException;
+import com.google.android.apps.common.testing.ui.espresso.UiController;
 import com.jameswald.skinnylatte.common.base.Optional;
 
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Choreographer.FrameCallback;
 
 import junit.framework.TestCase;
 
@@ -16,6 +21,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -96,6 +103,9 @@ public class UiControllerImplTest extends TestCase {
         new AsyncTaskPoolMonitor(asyncPool),
         Optional.<AsyncTaskPoolMonitor>absent(),
         idlingResourceRegistry,
+        new DispatchTrace(),
+        new DispatchProfiler(InstrumentationRegistry.getInstance().getTargetContext()),
+        new IdleWaitMetrics(),
         testThread.getLooper()
         ));
 
@@ -181,6 +191,57 @@ public class UiControllerImplTest extends TestCase {
         latch.await(10, TimeUnit.SECONDS));
   }
 
+  public void testLoopUntilCondition_endsOnDispatch() throws Exception {
+    final AtomicBoolean flag = new AtomicBoolean(false);
+    final AtomicReference<Boolean> conditionMet = new AtomicReference<Boolean>();
+    final AtomicReference<Long> loopedMillis = new AtomicReference<Long>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        testThread.getHandler().postDelayed(new Runnable() {
+          @Override
+          public void run() {
+            flag.set(true);
+          }
+        }, 100);
+        long start = SystemClock.uptimeMillis();
+        conditionMet.set(uiController.get().loopMainThreadUntil(new UiController.Condition() {
+          @Override
+          public boolean isMet() {
+            return flag.get();
+          }
+        }, 5000));
+        loopedMillis.set(SystemClock.uptimeMillis() - start);
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntil();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertTrue(conditionMet.get());
+    assertTrue("Looped for: " + loopedMillis.get(), loopedMillis.get() < 2000);
+  }
+
+  public void testLoopUntilCondition_timeout() throws Exception {
+    final AtomicReference<Boolean> conditionMet = new AtomicReference<Boolean>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        conditionMet.set(uiController.get().loopMainThreadUntil(new UiController.Condition() {
+          @Override
+          public boolean isMet() {
+            return false;
+          }
+        }, 200));
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntil();",
+        latch.await(10, TimeUnit.SECONDS));
+    assertFalse(conditionMet.get());
+  }
+
   public void testLoopMainThreadUntilIdle_fullQueue() {
     final CountDownLatch latch = new CountDownLatch(3);
     assertTrue(testThread.getHandler().post(new Runnable() {
@@ -289,6 +350,39 @@ public class UiControllerImplTest extends TestCase {
     }
   }
 
+  public void testLoopMainThreadUntilIdle_endlessAnimation() throws InterruptedException {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      return;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicBoolean animating = new AtomicBoolean(true);
+    final AtomicInteger framesDrawnBeforeIdle = new AtomicInteger(-1);
+    final AtomicInteger framesDrawn = new AtomicInteger(0);
+    assertTrue(testThread.getHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        // like a repeating animator, schedules the next frame from every frame.
+        Choreographer.getInstance().postFrameCallback(new FrameCallback() {
+          @Override
+          public void doFrame(long frameTimeNanos) {
+            framesDrawn.incrementAndGet();
+            if (animating.get()) {
+              Choreographer.getInstance().postFrameCallback(this);
+            }
+          }
+        });
+        uiController.get().loopMainThreadUntilIdle();
+        framesDrawnBeforeIdle.set(framesDrawn.get());
+        animating.set(false);
+        latch.countDown();
+      }
+    }));
+    assertTrue("Never returned from UiControllerImpl.loopMainThreadUntilIdle();",
+        latch.await(10, TimeUnit.SECONDS));
+    // the frame pending when the idle check began was drawn.
+    assertTrue(framesDrawnBeforeIdle.get() >= 1);
+  }
+
   public void testLoopMainThreadUntilIdle_oneIdlingResource() throws InterruptedException {
     OnDemandIdlingResource fakeResource = new OnDemandIdlingResource("FakeResource");
     idlingResourceRegistry.register(fakeResource);
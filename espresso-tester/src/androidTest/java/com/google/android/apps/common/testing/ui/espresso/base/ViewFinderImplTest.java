@@ -1,6 +1,9 @@
 package com.google.android.apps.common.testing.ui.espresso.base;
 
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withId;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.sameInstance;
 
 import com.google.android.apps.common.testing.ui.espresso.AmbiguousViewMatcherException;
@@ -63,13 +66,15 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
 
   @UiThreadTest
   public void testGetView_present() {
-    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider);
+    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider,
+        new ViewHierarchyIndex());
     assertThat(finder.getView(), sameInstance(nestedChild));
   }
 
   @UiThreadTest
   public void testGetView_missing() {
-    ViewFinder finder = new ViewFinderImpl(Matchers.<View>nullValue(), testViewProvider);
+    ViewFinder finder = new ViewFinderImpl(Matchers.<View>nullValue(), testViewProvider,
+        new ViewHierarchyIndex());
     try {
       finder.getView();
       fail("No children should pass that matcher!");
@@ -78,15 +83,46 @@ public class ViewFinderImplTest extends InstrumentationTestCase {
 
   @UiThreadTest
   public void testGetView_multiple() {
-    ViewFinder finder = new ViewFinderImpl(Matchers.<View>notNullValue(), testViewProvider);
+    ViewFinder finder = new ViewFinderImpl(Matchers.<View>notNullValue(), testViewProvider,
+        new ViewHierarchyIndex());
     try {
       finder.getView();
       fail("All nodes hit that matcher!");
     } catch (AmbiguousViewMatcherException expected) {}
   }
 
+  @UiThreadTest
+  public void testGetView_pinnedId() {
+    ViewFinder finder = new ViewFinderImpl(
+        allOf(isAssignableFrom(TextView.class), withId(5)), testViewProvider,
+        new ViewHierarchyIndex());
+    assertThat(finder.getView(), sameInstance(nestedChild));
+  }
+
+  @UiThreadTest
+  public void testGetView_pinnedIdMissing() {
+    ViewFinder finder = new ViewFinderImpl(withId(42), testViewProvider,
+        new ViewHierarchyIndex());
+    try {
+      finder.getView();
+      fail("No view has that id!");
+    } catch (NoMatchingViewException expected) {}
+  }
+
+  @UiThreadTest
+  public void testGetView_pinnedIdMultiple() {
+    child4.setId(5);
+    ViewFinder finder = new ViewFinderImpl(withId(5), testViewProvider,
+        new ViewHierarchyIndex());
+    try {
+      finder.getView();
+      fail("Two views share that id!");
+    } catch (AmbiguousViewMatcherException expected) {}
+  }
+
   public void testFind_offUiThread() {
-    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider);
+    ViewFinder finder = new ViewFinderImpl(sameInstance(nestedChild), testViewProvider,
+        new ViewHierarchyIndex());
     try {
       finder.getView();
       fail("not on main thread, should die.");
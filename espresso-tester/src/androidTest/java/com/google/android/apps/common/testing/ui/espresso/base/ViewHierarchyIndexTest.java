@@ -0,0 +1,89 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isDisplayed;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withId;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+
+import com.google.android.apps.common.testing.ui.espresso.tester.R;
+import com.google.android.apps.common.testing.ui.espresso.tester.SendActivity;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.UiThreadTest;
+import android.view.View;
+import android.widget.Button;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+/** Unit tests for {@link ViewHierarchyIndex}. */
+public class ViewHierarchyIndexTest extends ActivityInstrumentationTestCase2<SendActivity> {
+
+  private ViewHierarchyIndex index;
+  private View root;
+
+  @SuppressWarnings("deprecation")
+  public ViewHierarchyIndexTest() {
+    // Supporting froyo.
+    super("com.google.android.apps.common.testing.ui.testapp", SendActivity.class);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    root = getActivity().getWindow().getDecorView();
+    index = new ViewHierarchyIndex();
+    index.setEnabled(true);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    // releases the activity's views and listeners, on the main thread.
+    index.setEnabled(false);
+    getInstrumentation().waitForIdleSync();
+    super.tearDown();
+  }
+
+  @UiThreadTest
+  public void testDisabled() {
+    index.setEnabled(false);
+    assertFalse(index.candidates(root, withId(R.id.send_button)).isPresent());
+  }
+
+  @UiThreadTest
+  public void testUnpinnedMatcher() {
+    assertFalse(index.candidates(root, isDisplayed()).isPresent());
+  }
+
+  @UiThreadTest
+  public void testUnattachedRoot() {
+    FrameLayout unattached = new FrameLayout(getActivity());
+    assertFalse(index.candidates(unattached, withId(R.id.send_button)).isPresent());
+  }
+
+  @UiThreadTest
+  public void testCandidatesById() {
+    View sendButton = root.findViewById(R.id.send_button);
+    assertEquals(1, index.candidates(root, withId(R.id.send_button)).get().size());
+    assertSame(sendButton,
+        index.candidates(root, allOf(isDisplayed(), withId(R.id.send_button))).get().get(0));
+    assertTrue(index.candidates(root, withId(R.id.send_button + 1000)).get().isEmpty());
+  }
+
+  @UiThreadTest
+  public void testCandidatesByClass() {
+    View sendButton = root.findViewById(R.id.send_button);
+    assertTrue(index.candidates(root, isAssignableFrom(Button.class)).get().contains(sendButton));
+    assertFalse(index.candidates(root, isAssignableFrom(Button.class)).get().contains(root));
+  }
+
+  @UiThreadTest
+  public void testInvalidatedByLayout() {
+    TextView responseText = (TextView) root.findViewById(R.id.enter_data_response_text);
+    assertTrue(index.candidates(root, withText("indexed")).get().isEmpty());
+
+    responseText.setText("indexed");
+    root.getViewTreeObserver().dispatchOnGlobalLayout();
+    assertTrue(index.candidates(root, withText("indexed")).get().contains(responseText));
+  }
+}
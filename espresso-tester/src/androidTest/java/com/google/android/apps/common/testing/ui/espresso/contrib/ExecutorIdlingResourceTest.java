@@ -0,0 +1,180 @@
+package com.google.android.apps.common.testing.ui.espresso.contrib;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource.ResourceCallback;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link ExecutorIdlingResource}. */
+public class ExecutorIdlingResourceTest extends TestCase {
+
+  private static final String RESOURCE_NAME = "test_resource";
+
+  private final ThreadPoolExecutor testThreadPool = new ThreadPoolExecutor(
+      2, 2, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+  private final ExecutorService testExecutorService = Executors.newSingleThreadExecutor();
+
+  private ExecutorIdlingResource resource;
+  private CountDownLatch idleLatch;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    resource = new ExecutorIdlingResource(RESOURCE_NAME);
+    idleLatch = new CountDownLatch(1);
+    resource.registerIdleTransitionCallback(new ResourceCallback() {
+      @Override
+      public void onTransitionToIdle() {
+        idleLatch.countDown();
+      }
+    });
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    testThreadPool.shutdownNow();
+    testExecutorService.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testResourceName() {
+    assertEquals(RESOURCE_NAME, resource.getName());
+  }
+
+  public void testDecoratedExecutorService() throws Exception {
+    assertTrue(resource.isIdleNow());
+    CountDownLatch exitLatch = new CountDownLatch(1);
+    resource.decorate(testExecutorService).submit(new BlockingTask(exitLatch));
+    assertFalse(resource.isIdleNow());
+    assertFalse(idleLatch.await(100, TimeUnit.MILLISECONDS));
+
+    exitLatch.countDown();
+    assertTrue(idleLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testDecoratedExecutor_rejectedTaskIsNotCounted() {
+    Executor rejecting = resource.decorate(new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        throw new RejectedExecutionException();
+      }
+    });
+    try {
+      rejecting.execute(new BlockingTask(new CountDownLatch(0)));
+      fail("should have thrown");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testAdoptedPool() throws Exception {
+    resource.adopt(testThreadPool);
+    assertTrue(resource.isIdleNow());
+    CountDownLatch exitLatch = new CountDownLatch(1);
+    // submitted directly to the pool, not thru a decorator.
+    testThreadPool.execute(new BlockingTask(exitLatch));
+    assertFalse(resource.isIdleNow());
+
+    exitLatch.countDown();
+    assertTrue(idleLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testAdoptRefusesPoolsWhichMayHandOffTasks() {
+    ExecutorService cachedPool = Executors.newCachedThreadPool();
+    ScheduledThreadPoolExecutor scheduledPool = new ScheduledThreadPoolExecutor(1);
+    try {
+      resource.adopt((ThreadPoolExecutor) cachedPool);
+      fail("cached pools start threads with the task in hand");
+    } catch (IllegalArgumentException expected) {
+    } finally {
+      cachedPool.shutdownNow();
+    }
+    try {
+      resource.adopt(scheduledPool);
+      fail("scheduled pools cannot count delayed tasks");
+    } catch (IllegalArgumentException expected) {
+    } finally {
+      scheduledPool.shutdownNow();
+    }
+  }
+
+  public void testAdoptUnboundedPoolWithQueuedTasks() throws Exception {
+    // never grows beyond its core size, as its queue never refuses a task.
+    ThreadPoolExecutor unboundedPool = new ThreadPoolExecutor(
+        1, 2, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    try {
+      CountDownLatch firstExitLatch = new CountDownLatch(1);
+      unboundedPool.execute(new BlockingTask(firstExitLatch));
+      unboundedPool.execute(new BlockingTask(new CountDownLatch(0)));
+      assertEquals(1, unboundedPool.getQueue().size());
+
+      resource.adopt(unboundedPool);
+      firstExitLatch.countDown();
+      CountDownLatch exitLatch = new CountDownLatch(1);
+      unboundedPool.execute(new BlockingTask(exitLatch));
+      assertFalse(resource.isIdleNow());
+
+      exitLatch.countDown();
+      assertTrue(idleLatch.await(1, TimeUnit.SECONDS));
+      assertTrue(resource.isIdleNow());
+    } finally {
+      unboundedPool.shutdownNow();
+    }
+  }
+
+  public void testReleasedResourceStopsWatching() throws Exception {
+    resource.adopt(testThreadPool);
+    CountDownLatch exitLatch = new CountDownLatch(1);
+    testThreadPool.execute(new BlockingTask(exitLatch));
+    assertFalse(resource.isIdleNow());
+
+    resource.release();
+    assertTrue(resource.isIdleNow());
+    exitLatch.countDown();
+    assertFalse(idleLatch.await(100, TimeUnit.MILLISECONDS));
+  }
+
+  public void testIdleOnlyOnceAllExecutorsAreIdle() throws Exception {
+    resource.adopt(testThreadPool);
+    CountDownLatch poolExitLatch = new CountDownLatch(1);
+    CountDownLatch serviceExitLatch = new CountDownLatch(1);
+    testThreadPool.execute(new BlockingTask(poolExitLatch));
+    resource.decorate(testExecutorService).execute(new BlockingTask(serviceExitLatch));
+
+    poolExitLatch.countDown();
+    assertFalse(idleLatch.await(100, TimeUnit.MILLISECONDS));
+    assertFalse(resource.isIdleNow());
+
+    serviceExitLatch.countDown();
+    assertTrue(idleLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(resource.isIdleNow());
+  }
+
+  private static class BlockingTask implements Runnable {
+    private final CountDownLatch exitLatch;
+
+    BlockingTask(CountDownLatch exitLatch) {
+      this.exitLatch = exitLatch;
+    }
+
+    @Override
+    public void run() {
+      try {
+        exitLatch.await();
+      } catch (InterruptedException ie) {
+        throw new RuntimeException(ie);
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package com.google.android.apps.common.testing.ui.espresso.contrib;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource.ResourceCallback;
+
+import android.test.InstrumentationTestCase;
+
+import org.mockito.Mock;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link StripedCountingIdlingResource}. */
+public class StripedCountingIdlingResourceTest extends InstrumentationTestCase {
+
+  private static final String RESOURCE_NAME = "test_resource";
+  private StripedCountingIdlingResource resource;
+
+  @Mock
+  private ResourceCallback mockCallback;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    initMocks(this);
+    resource = new StripedCountingIdlingResource(RESOURCE_NAME, 4, true, false);
+    resource.registerIdleTransitionCallback(mockCallback);
+  }
+
+  public void testResourceName() {
+    assertEquals(RESOURCE_NAME, resource.getName());
+  }
+
+  public void testInvalidStateDetected() {
+    resource.increment("a");
+    resource.decrement("a");
+    try {
+      resource.decrement("a");
+      fail("Should throw illegal state exception!");
+    } catch (IllegalStateException expected) { }
+  }
+
+  public void testIdleNotificationOnceAllKeysAreDone() {
+    assertTrue(resource.isIdleNow());
+    resource.increment("search");
+    resource.increment("search");
+    resource.increment("profile");
+    resource.increment();
+    assertFalse(resource.isIdleNow());
+
+    Map<String, Integer> inFlight = resource.getInFlightCounts();
+    assertEquals(Integer.valueOf(2), inFlight.get("search"));
+    assertEquals(Integer.valueOf(1), inFlight.get("profile"));
+    assertEquals(Integer.valueOf(1), inFlight.get(""));
+
+    resource.decrement("search");
+    resource.decrement("profile");
+    resource.decrement();
+    verify(mockCallback, never()).onTransitionToIdle();
+    assertFalse(resource.isIdleNow());
+
+    resource.decrement("search");
+    verify(mockCallback).onTransitionToIdle();
+    assertTrue(resource.isIdleNow());
+    assertTrue(resource.getInFlightCounts().isEmpty());
+    assertEquals(1, resource.getBusyPeriodCount());
+  }
+
+  public void testIdleNotificationOncePerBusyPeriodAcrossThreads() throws Exception {
+    final int threads = 4;
+    final int callsPerThread = 1000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    // holds the resource busy until every thread is done.
+    resource.increment("hold");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        final String key = "key" + i;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              for (int call = 0; call < callsPerThread; call++) {
+                resource.increment(key);
+                resource.decrement(key);
+              }
+            } catch (InterruptedException ie) {
+              throw new RuntimeException(ie);
+            } finally {
+              done.countDown();
+            }
+          }
+        });
+      }
+      start.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    verify(mockCallback, never()).onTransitionToIdle();
+    assertFalse(resource.isIdleNow());
+
+    resource.decrement("hold");
+    verify(mockCallback, times(1)).onTransitionToIdle();
+    assertTrue(resource.isIdleNow());
+  }
+
+  public void testIdleNotificationOncePerRacingBusyPeriod() throws Exception {
+    final int threads = 4;
+    final int rounds = 200;
+    final StripedCountingIdlingResource unkeyed =
+        new StripedCountingIdlingResource(RESOURCE_NAME);
+    unkeyed.registerIdleTransitionCallback(mockCallback);
+    // each round is one busy period, opened by this thread. Every worker increments before any
+    // decrements, and takes one more than it added - so the last decrements race each other, and
+    // some of them take from the stripe of another thread.
+    final CyclicBarrier roundStart = new CyclicBarrier(threads + 1);
+    final CyclicBarrier incremented = new CyclicBarrier(threads);
+    final CyclicBarrier roundDone = new CyclicBarrier(threads + 1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              for (int round = 0; round < rounds; round++) {
+                roundStart.await();
+                unkeyed.increment();
+                unkeyed.increment();
+                incremented.await();
+                unkeyed.decrement();
+                unkeyed.decrement();
+                unkeyed.decrement();
+                roundDone.await();
+              }
+            } catch (Exception e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+      }
+      for (int round = 1; round <= rounds; round++) {
+        for (int i = 0; i < threads; i++) {
+          unkeyed.increment();
+        }
+        roundStart.await(10, TimeUnit.SECONDS);
+        roundDone.await(10, TimeUnit.SECONDS);
+        assertTrue(unkeyed.isIdleNow());
+        verify(mockCallback, times(round)).onTransitionToIdle();
+        assertEquals(round, unkeyed.getBusyPeriodCount());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testDecrementOnAnotherThread() throws Exception {
+    final StripedCountingIdlingResource unkeyed =
+        new StripedCountingIdlingResource(RESOURCE_NAME);
+    unkeyed.registerIdleTransitionCallback(mockCallback);
+    unkeyed.increment();
+    unkeyed.increment();
+    Thread decrementer = new Thread() {
+      @Override
+      public void run() {
+        unkeyed.decrement();
+      }
+    };
+    decrementer.start();
+    decrementer.join();
+    verify(mockCallback, never()).onTransitionToIdle();
+    assertFalse(unkeyed.isIdleNow());
+
+    unkeyed.decrement();
+    verify(mockCallback).onTransitionToIdle();
+    assertTrue(unkeyed.isIdleNow());
+  }
+
+  public void testKeyCountsMustBeEnabled() {
+    StripedCountingIdlingResource untracked = new StripedCountingIdlingResource(RESOURCE_NAME);
+    try {
+      untracked.getInFlightCounts();
+      fail("Should throw illegal state exception!");
+    } catch (IllegalStateException expected) { }
+  }
+}
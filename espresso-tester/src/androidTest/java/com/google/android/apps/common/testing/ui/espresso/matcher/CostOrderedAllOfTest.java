@@ -0,0 +1,130 @@
+package com.google.android.apps.common.testing.ui.espresso.matcher;
+
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isDisplayed;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isEnabled;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withId;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withParent;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.anyOf;
+
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+
+import java.util.List;
+
+/** Unit tests for {@link CostOrderedAllOf}. */
+public class CostOrderedAllOfTest extends InstrumentationTestCase {
+
+  private final List<String> calls = Lists.newArrayList();
+  private TextView view;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    view = new TextView(getInstrumentation().getTargetContext());
+    view.setId(7);
+    view.setText("OK");
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testCheapPartsRunFirst() {
+    Matcher<View> written = allOf(
+        recording("displayed", isDisplayed()),
+        recording("enabled", isEnabled()),
+        withText("Cancel"));
+    Matcher<View> reordered = CostOrderedAllOf.reorder(written);
+
+    // the text check rules the view out before anything else runs.
+    assertFalse(reordered.matches(view));
+    assertTrue(calls.isEmpty());
+
+    assertEquals(StringDescription.toString(written), StringDescription.toString(reordered));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testOtherPartsKeepWrittenOrder() {
+    Matcher<View> reordered = CostOrderedAllOf.reorder(allOf(
+        recording("first", isEnabled()),
+        allOf(recording("second", isEnabled()), withText("OK")),
+        withId(7),
+        recording("third", isEnabled())));
+    assertTrue(reordered instanceof CostOrderedAllOf);
+    reordered.matches(view);
+    assertEquals(Lists.newArrayList("first", "second", "third"), calls);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testEarlierPartStillGuardsLaterOnes() {
+    // only safe to run on views with a parent, which the part before it checks.
+    Matcher<View> parentHasOneChild = new BaseMatcher<View>() {
+      @Override
+      public boolean matches(Object item) {
+        return 1 == ((ViewGroup) ((View) item).getParent()).getChildCount();
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("parent has one child");
+      }
+    };
+    Matcher<View> reordered = CostOrderedAllOf.reorder(allOf(
+        withParent(isAssignableFrom(ViewGroup.class)), parentHasOneChild, withText("OK")));
+
+    assertFalse(reordered.matches(view));
+    FrameLayout parent = new FrameLayout(getInstrumentation().getTargetContext());
+    parent.addView(view);
+    assertTrue(reordered.matches(view));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testMatchesLikeAllOf() {
+    Matcher<View> reordered =
+        CostOrderedAllOf.reorder(allOf(isEnabled(), withText("OK"), withId(7)));
+    assertTrue(reordered instanceof CostOrderedAllOf);
+    assertTrue(reordered.matches(view));
+    view.setEnabled(false);
+    assertFalse(reordered.matches(view));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testNothingToReorder() {
+    Matcher<View> alreadyOrdered = allOf(withId(7), isEnabled(), isDisplayed());
+    assertSame(alreadyOrdered, CostOrderedAllOf.reorder(alreadyOrdered));
+    Matcher<View> notAllOf = anyOf(isDisplayed(), withId(7));
+    assertSame(notAllOf, CostOrderedAllOf.reorder(notAllOf));
+  }
+
+  public void testPinnedPropertiesSeeThroughReordering() {
+    @SuppressWarnings("unchecked")
+    Matcher<View> reordered = CostOrderedAllOf.reorder(allOf(isDisplayed(), withId(7)));
+    assertEquals(7, PinnedViewProperties.id(reordered));
+  }
+
+  // records a call when the part is run.
+  private Matcher<View> recording(final String name, final Matcher<View> delegate) {
+    return new BaseMatcher<View>() {
+      @Override
+      public boolean matches(Object item) {
+        calls.add(name);
+        return delegate.matches(item);
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        delegate.describeTo(description);
+      }
+    };
+  }
+}
@@ -0,0 +1,46 @@
+package com.google.android.apps.common.testing.ui.espresso.matcher;
+
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isAssignableFrom;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.isDisplayed;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withContentDescription;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withId;
+import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.withText;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.is;
+
+import android.view.View;
+import android.widget.Button;
+
+import junit.framework.TestCase;
+
+/** Unit tests for {@link PinnedViewProperties}. */
+public class PinnedViewPropertiesTest extends TestCase {
+
+  public void testWithId() {
+    assertEquals(7, PinnedViewProperties.id(withId(7)));
+  }
+
+  public void testWithIdInsideAllOf() {
+    assertEquals(7, PinnedViewProperties.id(allOf(isDisplayed(), withId(7))));
+    assertEquals(7,
+        PinnedViewProperties.id(allOf(withText("a"), allOf(isDisplayed(), withId(7)))));
+  }
+
+  public void testOtherProperties() {
+    assertEquals("a", PinnedViewProperties.text(allOf(isDisplayed(), withText("a"))));
+    assertEquals("b", PinnedViewProperties.contentDescription(withContentDescription("b")));
+    assertEquals(Button.class,
+        PinnedViewProperties.viewClass(allOf(isAssignableFrom(Button.class), isDisplayed())));
+  }
+
+  public void testUnpinned() {
+    assertEquals(View.NO_ID, PinnedViewProperties.id(withText("a")));
+    assertEquals(View.NO_ID, PinnedViewProperties.id(withId(is(7))));
+    assertEquals(View.NO_ID, PinnedViewProperties.id(anyOf(withId(7), withId(8))));
+    assertEquals(View.NO_ID, PinnedViewProperties.id(allOf(isDisplayed(), withText("a"))));
+    assertNull(PinnedViewProperties.text(withText(is("a"))));
+    assertNull(PinnedViewProperties.contentDescription(withId(7)));
+    assertNull(PinnedViewProperties.viewClass(isDisplayed()));
+  }
+}
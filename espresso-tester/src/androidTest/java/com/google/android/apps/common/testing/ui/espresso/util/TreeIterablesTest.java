@@ -8,13 +8,18 @@ import static org.hamcrest.Matchers.is;
 
 import com.google.android.apps.common.testing.ui.espresso.util.TreeIterables.DistanceRecordingTreeViewer;
 import com.google.android.apps.common.testing.ui.espresso.util.TreeIterables.TreeViewer;
+import com.google.android.apps.common.testing.ui.espresso.util.TreeIterables.ViewAndDistance;
 import com.jameswald.skinnylatte.common.base.Function;
 import com.jameswald.skinnylatte.common.collect.Iterables;
 import com.jameswald.skinnylatte.common.collect.Lists;
 import com.jameswald.skinnylatte.common.collect.Maps;
 import com.jameswald.skinnylatte.common.collect.Sets;
 
-import junit.framework.TestCase;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -23,7 +28,7 @@ import java.util.Map;
 import java.util.Set;
 
 /** Unit tests for {@link TreeIterables}. */
-public class TreeIterablesTest extends TestCase {
+public class TreeIterablesTest extends InstrumentationTestCase {
 
   private static class TestElement {
     private final String data;
@@ -41,6 +46,20 @@ public class TreeIterablesTest extends TestCase {
     }
   }
 
+  private static class TestViewTreeViewer implements TreeViewer<View> {
+    @Override
+    public Collection<View> children(View view) {
+      List<View> children = Lists.newArrayList();
+      if (view instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup) view;
+        for (int i = 0; i < group.getChildCount(); i++) {
+          children.add(group.getChildAt(i));
+        }
+      }
+      return children;
+    }
+  }
+
   private static class TestElementStringConvertor implements Function<TestElement, String> {
     @Override
     public String apply(TestElement e) {
@@ -202,4 +221,57 @@ public class TreeIterablesTest extends TestCase {
         hasEntry("d", 3)));
     assertThat(distancesByData.size(), is(4));
   }
+
+  public void testViewTraversal_matchesTreeViewerTraversal() {
+    View root = createWideViewTree();
+    assertEquals(
+        Lists.newArrayList(TreeIterables.depthFirstTraversal(root, new TestViewTreeViewer())),
+        Lists.newArrayList(TreeIterables.depthFirstViewTraversal(root)));
+    assertEquals(
+        Lists.newArrayList(TreeIterables.breadthFirstTraversal(root, new TestViewTreeViewer())),
+        Lists.newArrayList(TreeIterables.breadthFirstViewTraversal(root)));
+  }
+
+  public void testViewTraversal_distances() {
+    View root = createWideViewTree();
+    DistanceRecordingTreeViewer<View> distanceRecorder =
+        new DistanceRecordingTreeViewer<View>(root, new TestViewTreeViewer());
+    List<View> expectedOrder =
+        Lists.newArrayList(TreeIterables.depthFirstTraversal(root, distanceRecorder));
+
+    List<View> order = Lists.newArrayList();
+    Iterable<ViewAndDistance> traversal = TreeIterables.depthFirstViewTraversalWithDistance(root);
+    for (ViewAndDistance viewAndDistance : traversal) {
+      order.add(viewAndDistance.getView());
+      assertEquals(distanceRecorder.getDistance(viewAndDistance.getView()),
+          viewAndDistance.getDistanceFromRoot());
+    }
+    assertEquals(expectedOrder, order);
+  }
+
+  public void testViewTraversal_leafRoot() {
+    View leaf = new View(getInstrumentation().getTargetContext());
+    assertEquals(Lists.newArrayList(leaf),
+        Lists.newArrayList(TreeIterables.breadthFirstViewTraversal(leaf)));
+    assertEquals(Lists.newArrayList(leaf),
+        Lists.newArrayList(TreeIterables.depthFirstViewTraversal(leaf)));
+  }
+
+  // wide and deep enough to make the traversal buffers grow while wrapped around.
+  private View createWideViewTree() {
+    Context context = getInstrumentation().getTargetContext();
+    FrameLayout root = new FrameLayout(context);
+    for (int i = 0; i < 3; i++) {
+      FrameLayout group = new FrameLayout(context);
+      for (int j = 0; j < 10; j++) {
+        FrameLayout child = new FrameLayout(context);
+        for (int k = 0; k < j % 3; k++) {
+          child.addView(new View(context));
+        }
+        group.addView(child);
+      }
+      root.addView(group);
+    }
+    return root;
+  }
 }
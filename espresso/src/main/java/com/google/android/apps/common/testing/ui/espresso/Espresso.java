@@ -13,7 +13,11 @@ import static org.hamcrest.Matchers.endsWith;
 
 import com.google.android.apps.common.testing.ui.espresso.action.ViewActions;
 import com.google.android.apps.common.testing.ui.espresso.base.BaseLayerModule;
+import com.google.android.apps.common.testing.ui.espresso.base.DispatchProfiler;
+import com.google.android.apps.common.testing.ui.espresso.base.IdleWaitMetrics;
 import com.google.android.apps.common.testing.ui.espresso.base.IdlingResourceRegistry;
+import com.google.android.apps.common.testing.ui.espresso.base.ViewHierarchyIndex;
+import com.google.android.apps.common.testing.ui.espresso.matcher.CostOrderedAllOf;
 import com.google.android.apps.common.testing.ui.espresso.util.TreeIterables;
 
 import android.content.Context;
@@ -48,11 +52,22 @@ public final class Espresso {
    * @see #onData
    */
   public static ViewInteraction onView(final Matcher<View> viewMatcher) {
-    return espressoGraph().plus(new ViewInteractionModule(viewMatcher)).get(ViewInteraction.class);
+    // run the cheap parts of composite matchers first, they are called on every view.
+    return espressoGraph().plus(new ViewInteractionModule(CostOrderedAllOf.reorder(viewMatcher)))
+        .get(ViewInteraction.class);
   }
 
 
 
+  /**
+   * Creates an empty {@link InteractionBatch}. Steps added to the batch are run in a single trip to
+   * the main thread, which saves a round trip per step in tests making many interactions in a row
+   * (e.g. filling in a form).
+   */
+  public static InteractionBatch onBatch() {
+    return new InteractionBatch();
+  }
+
   /**
    * Creates an {@link DataInteraction} for a data object displayed by the application. Use this
    * method to load (into the view hierarchy) items from AdapterView widgets (e.g. ListView).
@@ -67,6 +82,11 @@ public final class Espresso {
    * Registers a Looper for idle checking with the framework. This is intended for use with
    * non-UI thread loopers.
    *
+   * All loopers registered this way are monitored together and report their own transitions
+   * between busy and idle, so checking them does not get slower as more loopers are registered.
+   * While a looper is idle, its message logging Printer is borrowed to notice the next message it
+   * dispatches - a printer the app installed keeps receiving every line.
+   *
    * @throws IllegalArgumentException if looper is the main looper.
    */
   public static void registerLooperAsIdlingResource(Looper looper) {
@@ -103,6 +123,20 @@ public final class Espresso {
     }
   }
 
+  /**
+   * Unregisters one or more {@link IdlingResource}s from the framework. Espresso no longer waits
+   * for the resources and ignores their transitions to idle. Typically called at test tear down for
+   * resources registered at test setup.
+   */
+  public static void unregisterIdlingResources(IdlingResource... resources) {
+    checkNotNull(resources);
+    IdlingResourceRegistry registry = espressoGraph().get(IdlingResourceRegistry.class);
+    for (IdlingResource resource : resources) {
+      checkNotNull(resource.getName(), "IdlingResource.getName() should not be null");
+      registry.unregister(resource);
+    }
+  }
+
   /**
    * Changes the default {@link FailureHandler} to the given one.
    */
@@ -111,6 +145,68 @@ public final class Espresso {
         .update(checkNotNull(failureHandler));
   }
 
+  /**
+   * Starts profiling the messages Espresso dispatches on the main thread while waiting for the
+   * application to idle. Each target Handler class and callback class gets a dispatch count and a
+   * histogram of dispatch times. Profiling is off by default - call this from setUp and
+   * {@link #stopDispatchProfiling} from tearDown to aggregate per test.
+   *
+   * @param profileName name of the profile, for example the test's name.
+   * @throws IllegalStateException if a profile is already running.
+   */
+  public static void startDispatchProfiling(String profileName) {
+    espressoGraph().get(DispatchProfiler.class).start(profileName);
+  }
+
+  /**
+   * Stops the running dispatch profile. The profile is sent as an instrumentation status report
+   * and written to the target application's files dir (under
+   * {@link DispatchProfiler#PROFILE_DIR}).
+   *
+   * @return the formatted profile.
+   * @throws IllegalStateException if no profile is running.
+   */
+  public static String stopDispatchProfiling() {
+    return espressoGraph().get(DispatchProfiler.class).stop();
+  }
+
+  /**
+   * Registers a listener which is told how long each perform / check waited for the application
+   * to become idle, and on what.
+   */
+  public static void registerIdleWaitListener(IdleWaitMetrics.Listener listener) {
+    espressoGraph().get(IdleWaitMetrics.class).addListener(listener);
+  }
+
+  /**
+   * Unregisters a listener registered with {@link #registerIdleWaitListener}.
+   */
+  public static void unregisterIdleWaitListener(IdleWaitMetrics.Listener listener) {
+    espressoGraph().get(IdleWaitMetrics.class).removeListener(listener);
+  }
+
+  /**
+   * Summarizes the time spent waiting for idle since the last call, per IdleCondition and per
+   * idling resource. Call it from tearDown to get a per-test summary.
+   *
+   * @return the formatted summary.
+   */
+  public static String getIdleWaitSummary() {
+    return espressoGraph().get(IdleWaitMetrics.class).summarizeAndReset();
+  }
+
+  /**
+   * Turns the view hierarchy index on or off (it is off by default). While on, lookups by
+   * withId, withText, withContentDescription or isAssignableFrom (alone or inside allOf) reuse an
+   * index of the current screen, which is rebuilt whenever the screen lays out or draws.
+   *
+   * Only enable it if your tests do not change ids or content descriptions of views without
+   * them being redrawn.
+   */
+  public static void setViewHierarchyIndexEnabled(boolean enabled) {
+    espressoGraph().get(ViewHierarchyIndex.class).setEnabled(enabled);
+  }
+
   /********************************** Top Level Actions ******************************************/
 
   // Ideally, this should be only allOf(isDisplayed(), withContentDescription("More options"))
@@ -203,13 +299,16 @@ public final class Espresso {
    * non contextual action bar.
    */
   private static class TransitionBridgingViewAction implements ViewAction {
+    private static final long TRANSITION_TIMEOUT_MILLIS = 5000;
+
     @Override
-    public void perform(UiController controller, View view) {
-      int loops = 0;
-      while (isTransitioningBetweenActionBars(view) && loops < 100) {
-        loops++;
-        controller.loopMainThreadForAtLeast(50);
-      }
+    public void perform(UiController controller, final View view) {
+      controller.loopMainThreadUntil(new UiController.Condition() {
+        @Override
+        public boolean isMet() {
+          return !isTransitioningBetweenActionBars(view);
+        }
+      }, TRANSITION_TIMEOUT_MILLIS);
       // if we're not transitioning properly the next viewaction
       // will give a decent enough exception.
     }
@@ -5,7 +5,10 @@ import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
 
 import com.google.android.apps.common.testing.testrunner.UsageTrackerRegistry;
 import com.google.android.apps.common.testing.ui.espresso.base.BaseLayerModule;
+import com.google.android.apps.common.testing.ui.espresso.base.DispatchProfiler;
+import com.google.android.apps.common.testing.ui.espresso.base.IdleWaitMetrics;
 import com.google.android.apps.common.testing.ui.espresso.base.IdlingResourceRegistry;
+import com.google.android.apps.common.testing.ui.espresso.base.ViewHierarchyIndex;
 
 import dagger.Module;
 import dagger.ObjectGraph;
@@ -54,7 +57,8 @@ public final class GraphHolder {
 
   @Module(
     includes = BaseLayerModule.class,
-    injects = IdlingResourceRegistry.class
+    injects = {IdlingResourceRegistry.class, DispatchProfiler.class, IdleWaitMetrics.class,
+        ViewHierarchyIndex.class}
   )
   static class EspressoModule {
   }
@@ -3,6 +3,8 @@ package com.google.android.apps.common.testing.ui.espresso;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 
+import android.os.Handler;
+
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,6 +39,12 @@ public final class IdlingPolicies {
         .logWarning()
         .build();
 
+  private static volatile IgnoredMessages ignoredMessages = IgnoredMessages.NONE;
+
+  private static volatile boolean recurringMessageDiagnosticsEnabled = false;
+
+  private static volatile long mainThreadStallTimeoutMillis = TimeUnit.SECONDS.toMillis(20);
+
 
   /**
    * Updates the IdlingPolicy used in UiController.loopUntil to detect AppNotIdleExceptions.
@@ -69,6 +77,76 @@ public final class IdlingPolicies {
         .build();
   }
 
+  /**
+   * Disregards every message sent to handlers of the given class when deciding whether a looper is
+   * idle. Useful for handlers which keep recurring work in flight, such as heartbeats or polling
+   * timers.
+   *
+   * Only handlers of exactly this class are matched, not its subclasses.
+   */
+  public static synchronized void ignoreMessagesFrom(Class<? extends Handler> handlerClass) {
+    ignoredMessages = ignoredMessages.withHandler(handlerClass);
+  }
+
+  /**
+   * Disregards messages with the given what value sent to handlers of the given class when
+   * deciding whether a looper is idle.
+   *
+   * Only handlers of exactly this class are matched, not its subclasses.
+   */
+  public static synchronized void ignoreMessagesFrom(Class<? extends Handler> handlerClass,
+      int what) {
+    ignoredMessages = ignoredMessages.withHandlerMessage(handlerClass, what);
+  }
+
+  /**
+   * Disregards runnables of the given class posted to any handler when deciding whether a looper is
+   * idle. Useful for recurring work posted thru View.postDelayed, such as a cursor blink.
+   */
+  public static synchronized void ignoreRunnables(Class<? extends Runnable> runnableClass) {
+    ignoredMessages = ignoredMessages.withCallback(runnableClass);
+  }
+
+  /**
+   * Removes all rules added by ignoreMessagesFrom and ignoreRunnables.
+   */
+  public static synchronized void clearIgnoredMessages() {
+    ignoredMessages = IgnoredMessages.NONE;
+  }
+
+  /**
+   * Enables logging of messages which are dispatched repeatedly while Espresso waits for the main
+   * looper to become idle. The log lists candidates for ignoreMessagesFrom and ignoreRunnables.
+   */
+  public static void setRecurringMessageDiagnosticsEnabled(boolean enabled) {
+    recurringMessageDiagnosticsEnabled = enabled;
+  }
+
+  /**
+   * Updates how long the main thread may go without processing a message while an interaction
+   * waits on it, before the interaction fails with a {@link MainThreadStalledException}.
+   *
+   * @param timeout the stall timeout, or 0 to wait for a stalled main thread indefinitely.
+   * @param unit the unit of the timeout value.
+   */
+  public static void setMainThreadStallTimeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout >= 0);
+    checkNotNull(unit);
+    mainThreadStallTimeoutMillis = unit.toMillis(timeout);
+  }
+
+  public static long getMainThreadStallTimeoutMillis() {
+    return mainThreadStallTimeoutMillis;
+  }
+
+  public static IgnoredMessages getIgnoredMessages() {
+    return ignoredMessages;
+  }
+
+  public static boolean isRecurringMessageDiagnosticsEnabled() {
+    return recurringMessageDiagnosticsEnabled;
+  }
+
 
   public static IdlingPolicy getMasterIdlingPolicy() {
     return masterIdlingPolicy;
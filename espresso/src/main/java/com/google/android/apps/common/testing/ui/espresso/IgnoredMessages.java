@@ -0,0 +1,104 @@
+package com.google.android.apps.common.testing.ui.espresso;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.jameswald.skinnylatte.common.collect.Maps;
+import com.jameswald.skinnylatte.common.collect.Sets;
+
+import android.os.Handler;
+import android.os.Message;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of rules describing which messages Espresso disregards when deciding whether a
+ * looper is idle.
+ *
+ * Apps often keep recurring delayed messages in flight - cursor blinks, polling timers,
+ * heartbeats. Without rules these always look like work which is about to run, so Espresso keeps
+ * dispatching them before it will call the app idle. Messages matching a rule are still dispatched
+ * normally, they just never hold up idle detection.
+ *
+ * Rules are installed thru {@link IdlingPolicies#ignoreMessagesFrom(Class)} and friends.
+ */
+public final class IgnoredMessages {
+  static final IgnoredMessages NONE = new IgnoredMessages(
+      Collections.<Class<?>, int[]>emptyMap(), Collections.<Class<?>>emptySet());
+
+  // handler class to sorted what values, an empty array matches any what.
+  private final Map<Class<?>, int[]> handlerRules;
+  private final Set<Class<?>> callbackRules;
+
+  private IgnoredMessages(Map<Class<?>, int[]> handlerRules,
+      Set<Class<?>> callbackRules) {
+    this.handlerRules = handlerRules;
+    this.callbackRules = callbackRules;
+  }
+
+  /**
+   * Checks if there are no rules at all.
+   */
+  public boolean isEmpty() {
+    return handlerRules.isEmpty() && callbackRules.isEmpty();
+  }
+
+  /**
+   * Checks if the given message should be disregarded when deciding about idleness.
+   */
+  public boolean matches(Message message) {
+    Handler target = message.getTarget();
+    if (null == target) {
+      // sync barriers are never ignored.
+      return false;
+    }
+    Runnable callback = message.getCallback();
+    if (null != callback && callbackRules.contains(callback.getClass())) {
+      return true;
+    }
+    int[] whats = handlerRules.get(target.getClass());
+    if (null == whats) {
+      return false;
+    }
+    return 0 == whats.length || Arrays.binarySearch(whats, message.what) >= 0;
+  }
+
+  IgnoredMessages withHandler(Class<? extends Handler> handlerClass) {
+    checkNotNull(handlerClass);
+    Map<Class<?>, int[]> newHandlerRules = Maps.newHashMap();
+    newHandlerRules.putAll(handlerRules);
+    newHandlerRules.put(handlerClass, new int[0]);
+    return new IgnoredMessages(Collections.unmodifiableMap(newHandlerRules), callbackRules);
+  }
+
+  IgnoredMessages withHandlerMessage(Class<? extends Handler> handlerClass, int what) {
+    checkNotNull(handlerClass);
+    int[] whats = handlerRules.get(handlerClass);
+    if (null != whats && (0 == whats.length || Arrays.binarySearch(whats, what) >= 0)) {
+      // already ignored.
+      return this;
+    }
+    int[] newWhats;
+    if (null == whats) {
+      newWhats = new int[] { what };
+    } else {
+      newWhats = new int[whats.length + 1];
+      System.arraycopy(whats, 0, newWhats, 0, whats.length);
+      newWhats[whats.length] = what;
+      Arrays.sort(newWhats);
+    }
+    Map<Class<?>, int[]> newHandlerRules = Maps.newHashMap();
+    newHandlerRules.putAll(handlerRules);
+    newHandlerRules.put(handlerClass, newWhats);
+    return new IgnoredMessages(Collections.unmodifiableMap(newHandlerRules), callbackRules);
+  }
+
+  IgnoredMessages withCallback(Class<? extends Runnable> callbackClass) {
+    checkNotNull(callbackClass);
+    Set<Class<?>> newCallbackRules = Sets.newHashSet(callbackRules);
+    newCallbackRules.add(callbackClass);
+    return new IgnoredMessages(handlerRules, Collections.unmodifiableSet(newCallbackRules));
+  }
+}
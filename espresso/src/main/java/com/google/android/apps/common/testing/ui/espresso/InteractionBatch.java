@@ -0,0 +1,132 @@
+package com.google.android.apps.common.testing.ui.espresso;
+
+import static com.google.android.apps.common.testing.ui.espresso.Espresso.onView;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
+
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+import java.util.List;
+
+/**
+ * An ordered batch of view actions and assertions, which are all run in a single trip to the main
+ * thread.
+ * <p>
+ * Each step behaves like the matching {@link ViewInteraction#perform} or
+ * {@link ViewInteraction#check} call, except that the main thread is only looped until idle before
+ * the first step and after each step which performed an action. An assertion does not change the
+ * UI, so the step after it runs straight away. If a step fails the steps after it are skipped, and
+ * the failure is reported against the view matcher of the failing step.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ *   Espresso.onBatch()
+ *       .perform(withId(R.id.name), typeText("Bob"))
+ *       .perform(withId(R.id.email), typeText("bob@example.com"))
+ *       .check(withId(R.id.submit), matches(isEnabled()))
+ *       .run();
+ * }
+ * </pre>
+ */
+public final class InteractionBatch {
+
+  private final List<Step> steps = Lists.newArrayList();
+
+  InteractionBatch() {}
+
+  /**
+   * Adds steps performing the given action(s), in order, on the view selected by the view matcher.
+   *
+   * @return this batch for further steps.
+   */
+  public InteractionBatch perform(Matcher<View> viewMatcher, ViewAction... viewActions) {
+    checkNotNull(viewActions);
+    ViewInteraction interaction = onView(viewMatcher);
+    for (ViewAction viewAction : viewActions) {
+      steps.add(new Step(interaction, checkNotNull(viewAction), null));
+    }
+    return this;
+  }
+
+  /**
+   * Adds a step checking the given assertion on the view selected by the view matcher.
+   *
+   * @return this batch for further steps.
+   */
+  public InteractionBatch check(Matcher<View> viewMatcher, ViewAssertion viewAssert) {
+    steps.add(new Step(onView(viewMatcher), null, checkNotNull(viewAssert)));
+    return this;
+  }
+
+  /**
+   * Runs all the steps of this batch on the main thread, and waits for them to complete. A batch
+   * may be run more than once.
+   */
+  public void run() {
+    checkState(!steps.isEmpty(), "No steps have been added to this batch.");
+    BatchRun batchRun = new BatchRun();
+    steps.get(0).interaction.runSynchronouslyOnUiThread(batchRun);
+    Throwable failure = batchRun.failure;
+    if (null != failure) {
+      steps.get(batchRun.failedStep).interaction.handleFailure(failure);
+    }
+  }
+
+  private static final class Step {
+    private final ViewInteraction interaction;
+    // exactly one of these is set.
+    private final ViewAction viewAction;
+    private final Matcher<? extends View> constraints;
+    private final ViewAssertion viewAssert;
+
+    Step(ViewInteraction interaction, ViewAction viewAction, ViewAssertion viewAssert) {
+      this.interaction = interaction;
+      this.viewAction = viewAction;
+      this.constraints = null == viewAction ? null : checkNotNull(viewAction.getConstraints());
+      this.viewAssert = viewAssert;
+    }
+
+    void runOnUiThread(boolean idleSync) {
+      if (null != viewAction) {
+        interaction.performOnUiThread(viewAction, constraints, idleSync);
+      } else {
+        interaction.checkOnUiThread(viewAssert, idleSync);
+      }
+    }
+  }
+
+  private final class BatchRun implements Runnable {
+    // written on main thread, read on the test thread once the run is done.
+    private int failedStep;
+    private volatile Throwable failure;
+
+    @Override
+    public void run() {
+      boolean idleSync = true;
+      for (int i = 0; i < steps.size(); i++) {
+        Step step = steps.get(i);
+        try {
+          step.runOnUiThread(idleSync);
+        } catch (RuntimeException re) {
+          fail(i, re);
+          return;
+        } catch (Error e) {
+          fail(i, e);
+          return;
+        }
+        // an assertion leaves the ui as it found it.
+        idleSync = null != step.viewAction;
+      }
+    }
+
+    private void fail(int step, Throwable stepFailure) {
+      failedStep = step;
+      failure = stepFailure;
+    }
+  }
+}
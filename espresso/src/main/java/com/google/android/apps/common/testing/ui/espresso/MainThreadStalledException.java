@@ -0,0 +1,18 @@
+package com.google.android.apps.common.testing.ui.espresso;
+
+/**
+ * Indicates that the main thread stopped processing its message queue for longer than the stall
+ * timeout (see {@link IdlingPolicies#setMainThreadStallTimeout}) - typically because it is blocked
+ * on a lock or on synchronous I/O. The message holds stack samples of the main thread taken while
+ * it was stalled.
+ *
+ * A stalled main thread cannot be waited out, so this fails the interaction instead of letting it
+ * hang until the master idling policy gives up.
+ */
+public final class MainThreadStalledException extends RuntimeException
+    implements EspressoException {
+
+  public MainThreadStalledException(String description) {
+    super(description);
+  }
+}
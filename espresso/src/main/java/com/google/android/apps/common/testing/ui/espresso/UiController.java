@@ -3,6 +3,8 @@ package com.google.android.apps.common.testing.ui.espresso;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
+import java.util.List;
+
 /**
  * Provides base-level UI operations (such as injection of {@link MotionEvent}s) that can be used to
  * build user actions such as clicks, scrolls, swipes, etc. This replaces parts of the android
@@ -25,6 +27,20 @@ public interface UiController {
    */
   boolean injectMotionEvent(MotionEvent event) throws InjectEventSecurityException;
 
+  /**
+   * Injects a sequence of motion events - such as a complete swipe - as one gesture. The events
+   * are injected one after the other off the main thread, each one no earlier than its event time,
+   * so the gesture follows the timing its events were created with. The main thread is looped
+   * while they are injected, and looped until idle only once the gesture is complete.
+   *
+   * @param events the (non-null!) events to inject, in order of event time
+   * @return true if all events were injected, false if injection stopped at an event which could
+   *         not be injected
+   * @throws InjectEventSecurityException if an event couldn't be injected because it would
+   *         interact with another application.
+   */
+  boolean injectMotionEventSequence(List<MotionEvent> events) throws InjectEventSecurityException;
+
   /**
    * Injects a key event into the application.
    *
@@ -64,4 +80,31 @@ public interface UiController {
    * @param millisDelay time to spend in looping the main thread
    */
   void loopMainThreadForAtLeast(long millisDelay);
+
+  /**
+   * Loops the main thread until the given condition is met or the timeout elapses.
+   *
+   * The condition is evaluated on the main thread before looping and after every message the main
+   * thread dispatches. Layout, drawing and focus changes (and their ViewTreeObserver callbacks) all
+   * happen while dispatching a message, so the loop ends within the frame that satisfied the
+   * condition rather than at the next polling interval. Unlike {@link #loopMainThreadForAtLeast},
+   * this method does not wait for the application to become idle once the condition is met.
+   *
+   * The condition must not loop the main thread itself.
+   *
+   * @param condition the condition to wait for.
+   * @param timeoutMillis the maximum time to loop for.
+   * @return true if the condition was met, false if the timeout elapsed first.
+   */
+  boolean loopMainThreadUntil(Condition condition, long timeoutMillis);
+
+  /**
+   * A condition on the state of the application, evaluated on the main thread.
+   */
+  interface Condition {
+    /**
+     * Returns true if the condition holds. Called frequently, so should be inexpensive.
+     */
+    boolean isMet();
+  }
 }
@@ -5,7 +5,9 @@ import static com.google.android.apps.common.testing.ui.espresso.matcher.ViewMat
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 
 import com.google.android.apps.common.testing.ui.espresso.action.ScrollToAction;
+import com.google.android.apps.common.testing.ui.espresso.base.IdleWaitMetrics;
 import com.google.android.apps.common.testing.ui.espresso.base.MainThread;
+import com.google.android.apps.common.testing.ui.espresso.base.MainThreadWatchdog;
 import com.google.android.apps.common.testing.ui.espresso.util.HumanReadables;
 import com.jameswald.skinnylatte.common.base.Optional;
 
@@ -42,6 +44,8 @@ public final class ViewInteraction {
   private final FailureHandler failureHandler;
   private final Matcher<View> viewMatcher;
   private final AtomicReference<Matcher<Root>> rootMatcherRef;
+  private final IdleWaitMetrics idleWaitMetrics;
+  private final MainThreadWatchdog mainThreadWatchdog;
 
   @Inject
   ViewInteraction(
@@ -50,13 +54,17 @@ public final class ViewInteraction {
       @MainThread Executor mainThreadExecutor,
       FailureHandler failureHandler,
       Matcher<View> viewMatcher,
-      AtomicReference<Matcher<Root>> rootMatcherRef) {
+      AtomicReference<Matcher<Root>> rootMatcherRef,
+      IdleWaitMetrics idleWaitMetrics,
+      MainThreadWatchdog mainThreadWatchdog) {
     this.viewFinder = checkNotNull(viewFinder);
     this.uiController = checkNotNull(uiController);
     this.failureHandler = checkNotNull(failureHandler);
     this.mainThreadExecutor = checkNotNull(mainThreadExecutor);
     this.viewMatcher = checkNotNull(viewMatcher);
     this.rootMatcherRef = checkNotNull(rootMatcherRef);
+    this.idleWaitMetrics = checkNotNull(idleWaitMetrics);
+    this.mainThreadWatchdog = checkNotNull(mainThreadWatchdog);
   }
 
   /**
@@ -91,37 +99,57 @@ public final class ViewInteraction {
 
       @Override
       public void run() {
-        uiController.loopMainThreadUntilIdle();
-        View targetView = viewFinder.getView();
-        Log.i(TAG, String.format(
-            "Performing '%s' action on view %s", viewAction.getDescription(), viewMatcher));
-        if (!constraints.matches(targetView)) {
-          // TODO(user): update this to describeMismatch once hamcrest is updated to new
-          StringDescription stringDescription = new StringDescription(new StringBuilder(
-              "Action will not be performed because the target view "
-              + "does not match one or more of the following constraints:\n"));
-          constraints.describeTo(stringDescription);
-          stringDescription.appendText("\nTarget view: ")
-              .appendValue(HumanReadables.describe(targetView));
-
-          if (viewAction instanceof ScrollToAction
-              && isDescendantOfA(isAssignableFrom((AdapterView.class))).matches(targetView)) {
-            stringDescription.appendText(
-                "\nFurther Info: ScrollToAction on a view inside an AdapterView will not work. "
-                + "Use Espresso.onData to load the view.");
-          }
-          throw new PerformException.Builder()
-            .withActionDescription(viewAction.getDescription())
-            .withViewDescription(viewMatcher.toString())
-            .withCause(new RuntimeException(stringDescription.toString()))
-            .build();
-        } else {
-          viewAction.perform(uiController, targetView);
-        }
+        performOnUiThread(viewAction, constraints, true);
       }
     });
   }
 
+  /**
+   * Performs the given action on the main thread, first looping it until idle if asked to.
+   */
+  void performOnUiThread(ViewAction viewAction, Matcher<? extends View> constraints,
+      boolean idleSync) {
+    idleWaitMetrics.beginInteraction();
+    try {
+      doPerformOnUiThread(viewAction, constraints, idleSync);
+    } finally {
+      idleWaitMetrics.endInteraction("perform", viewAction);
+    }
+  }
+
+  private void doPerformOnUiThread(ViewAction viewAction, Matcher<? extends View> constraints,
+      boolean idleSync) {
+    if (idleSync) {
+      uiController.loopMainThreadUntilIdle();
+    }
+    View targetView = viewFinder.getView();
+    Log.i(TAG, String.format(
+        "Performing '%s' action on view %s", viewAction.getDescription(), viewMatcher));
+    if (!constraints.matches(targetView)) {
+      // TODO(user): update this to describeMismatch once hamcrest is updated to new
+      StringDescription stringDescription = new StringDescription(new StringBuilder(
+          "Action will not be performed because the target view "
+          + "does not match one or more of the following constraints:\n"));
+      constraints.describeTo(stringDescription);
+      stringDescription.appendText("\nTarget view: ")
+          .appendValue(HumanReadables.describe(targetView));
+
+      if (viewAction instanceof ScrollToAction
+          && isDescendantOfA(isAssignableFrom((AdapterView.class))).matches(targetView)) {
+        stringDescription.appendText(
+            "\nFurther Info: ScrollToAction on a view inside an AdapterView will not work. "
+            + "Use Espresso.onData to load the view.");
+      }
+      throw new PerformException.Builder()
+        .withActionDescription(viewAction.getDescription())
+        .withViewDescription(viewMatcher.toString())
+        .withCause(new RuntimeException(stringDescription.toString()))
+        .build();
+    } else {
+      viewAction.perform(uiController, targetView);
+    }
+  }
+
   /**
    * Checks the given {@link ViewAssertion} on the the view selected by the current view matcher.
    *
@@ -133,30 +161,53 @@ public final class ViewInteraction {
     runSynchronouslyOnUiThread(new Runnable() {
       @Override
       public void run() {
-        uiController.loopMainThreadUntilIdle();
-
-        Optional<View> targetView = Optional.absent();
-        Optional<NoMatchingViewException> missingViewException = Optional.absent();
-        try {
-          targetView = Optional.of(viewFinder.getView());
-        } catch (NoMatchingViewException nsve) {
-          missingViewException = Optional.of(nsve);
-        }
-        viewAssert.check(targetView, missingViewException);
+        checkOnUiThread(viewAssert, true);
       }
     });
     return this;
   }
 
-  private void runSynchronouslyOnUiThread(Runnable action) {
+  /**
+   * Checks the given assertion on the main thread, first looping it until idle if asked to.
+   */
+  void checkOnUiThread(ViewAssertion viewAssert, boolean idleSync) {
+    idleWaitMetrics.beginInteraction();
+    try {
+      if (idleSync) {
+        uiController.loopMainThreadUntilIdle();
+      }
+
+      Optional<View> targetView = Optional.absent();
+      Optional<NoMatchingViewException> missingViewException = Optional.absent();
+      try {
+        targetView = Optional.of(viewFinder.getView());
+      } catch (NoMatchingViewException nsve) {
+        missingViewException = Optional.of(nsve);
+      }
+      viewAssert.check(targetView, missingViewException);
+    } finally {
+      idleWaitMetrics.endInteraction("check", viewAssert);
+    }
+  }
+
+  /**
+   * Reports a failure of this interaction to the failure handler.
+   */
+  void handleFailure(Throwable failure) {
+    failureHandler.handle(failure, viewMatcher);
+  }
+
+  void runSynchronouslyOnUiThread(Runnable action) {
     FutureTask<Void> uiTask = new FutureTask<Void>(action, null);
     mainThreadExecutor.execute(uiTask);
     try {
-      uiTask.get();
+      mainThreadWatchdog.await(uiTask);
     } catch (InterruptedException ie) {
       throw new RuntimeException("Interrupted  running UI task", ie);
     } catch (ExecutionException ee) {
       failureHandler.handle(ee.getCause(), viewMatcher);
+    } catch (MainThreadStalledException mtse) {
+      failureHandler.handle(mtse, viewMatcher);
     }
   }
 }
@@ -117,8 +117,17 @@ public final class AdapterDataLoaderAction implements ViewAction {
       }
     }
 
+    final AdapterView<? extends Adapter> renderingView = adapterView;
+    final AdapterViewProtocol.AdaptedData dataToRender = adaptedData;
+    UiController.Condition dataRendered = new UiController.Condition() {
+      @Override
+      public boolean isMet() {
+        return adapterViewProtocol.isDataRenderedWithinAdapterView(renderingView, dataToRender);
+      }
+    };
+
     int requestCount = 0;
-    while (!adapterViewProtocol.isDataRenderedWithinAdapterView(adapterView, adaptedData)) {
+    while (!dataRendered.isMet()) {
       if (requestCount > 1) {
         if ((requestCount % 50) == 0) {
           // sometimes an adapter view will receive an event that will block its attempts to scroll.
@@ -128,7 +137,10 @@ public final class AdapterDataLoaderAction implements ViewAction {
       } else {
         adapterViewProtocol.makeDataRenderedWithinAdapterView(adapterView, adaptedData);
       }
-      uiController.loopMainThreadForAtLeast(100);
+      // re-request rendering every 100ms, but stop as soon as the data shows up.
+      if (uiController.loopMainThreadUntil(dataRendered, 100)) {
+        uiController.loopMainThreadUntilIdle();
+      }
       requestCount++;
     }
   }
@@ -12,6 +12,8 @@ import android.util.Log;
 import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 
+import java.util.List;
+
 /**
  * Facilitates sending of motion events to a {@link UiController}.
  */
@@ -215,6 +217,30 @@ final class MotionEvents {
     return true;
   }
 
+  /**
+   * Injects the given events as one gesture, see {@link UiController#injectMotionEventSequence}.
+   *
+   * @return true if all events were injected.
+   */
+  static boolean sendSequence(UiController uiController, List<MotionEvent> events) {
+    checkNotNull(uiController);
+    checkNotNull(events);
+
+    try {
+      if (!uiController.injectMotionEventSequence(events)) {
+        Log.e(TAG, String.format("Injection of gesture failed (events: %s)", events.size()));
+        return false;
+      }
+    } catch (InjectEventSecurityException e) {
+      throw new PerformException.Builder()
+        .withActionDescription(String.format("inject gesture (events: %s)", events.size()))
+        .withViewDescription("unknown") // likely to be replaced by FailureHandler
+        .withCause(e)
+        .build();
+    }
+    return true;
+  }
+
   /**
    * Holds the result of a down motion.
    */
@@ -4,11 +4,14 @@ import static com.jameswald.skinnylatte.common.base.Preconditions.checkElementIn
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 
 import com.google.android.apps.common.testing.ui.espresso.UiController;
+import com.jameswald.skinnylatte.common.collect.Lists;
 
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.MotionEvent;
 
+import java.util.List;
+
 /**
  * Executes different swipe types to given positions.
  */
@@ -69,29 +72,47 @@ public enum Swipe implements Swiper {
     float[][] steps = interpolate(startCoordinates, endCoordinates, SWIPE_EVENT_COUNT);
     final int delayBetweenMovements = duration / steps.length;
 
-    MotionEvent downEvent = MotionEvents.sendDown(uiController, steps[0], precision).down;
+    // the whole swipe is injected as one gesture, each event at the time it is stamped with.
+    List<MotionEvent> events = Lists.newArrayList();
+    long downTime = SystemClock.uptimeMillis();
+    MotionEvent downEvent = MotionEvent.obtain(downTime,
+        downTime,
+        MotionEvent.ACTION_DOWN,
+        steps[0][0],
+        steps[0][1],
+        0, // pressure
+        1, // size
+        0, // metaState
+        precision[0], // xPrecision
+        precision[1], // yPrecision
+        0,  // deviceId
+        0); // edgeFlags
+    events.add(downEvent);
     try {
       for (int i = 1; i < steps.length; i++) {
-        if (!MotionEvents.sendMovement(uiController, downEvent, steps[i])) {
-          Log.e(TAG, "Injection of move event as part of the swipe failed. Sending cancel event.");
-          MotionEvents.sendCancel(uiController, downEvent);
-          return Swiper.Status.FAILURE;
-        }
-
-        long desiredTime = downEvent.getDownTime() + delayBetweenMovements * i;
-        long timeUntilDesired = desiredTime - SystemClock.uptimeMillis();
-        if (timeUntilDesired > 10) {
-          uiController.loopMainThreadForAtLeast(timeUntilDesired);
-        }
+        events.add(MotionEvent.obtain(downTime,
+            downTime + delayBetweenMovements * i,
+            MotionEvent.ACTION_MOVE,
+            steps[i][0],
+            steps[i][1],
+            0));
       }
-
-      if (!MotionEvents.sendUp(uiController, downEvent, endCoordinates)) {
-        Log.e(TAG, "Injection of up event as part of the swipe failed. Sending cancel event.");
+      events.add(MotionEvent.obtain(downTime,
+          downTime + delayBetweenMovements * steps.length,
+          MotionEvent.ACTION_UP,
+          endCoordinates[0],
+          endCoordinates[1],
+          0));
+
+      if (!MotionEvents.sendSequence(uiController, events)) {
+        Log.e(TAG, "Injection of the swipe failed. Sending cancel event.");
         MotionEvents.sendCancel(uiController, downEvent);
         return Swiper.Status.FAILURE;
       }
     } finally {
-      downEvent.recycle();
+      for (MotionEvent event : events) {
+        event.recycle();
+      }
     }
     return Swiper.Status.SUCCESS;
   }
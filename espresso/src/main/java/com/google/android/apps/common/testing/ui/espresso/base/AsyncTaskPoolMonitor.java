@@ -3,6 +3,8 @@ package com.google.android.apps.common.testing.ui.espresso.base;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
 
+import com.jameswald.skinnylatte.common.base.Optional;
+
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -17,14 +19,39 @@ import java.util.concurrent.atomic.AtomicReference;
  * That is currently possible and easy in Froyo to JB. If it ever becomes impossible, as long as we
  * know the max # of executor threads the AsyncTask framework allows we can still use this
  * interface, just need a different implementation.
+ *
+ * If the pool's tasks are counted by a {@link TaskTracker} (see {@link CountingTaskQueue}) the
+ * monitor relies on the tracker instead, which neither locks the pool nor occupies its threads.
+ * Pools which may run tasks without queueing them - most AsyncTask pools can grow beyond their
+ * core size - are never tracked, and are always inspected directly.
+ * Until the pool is seen idle once, tasks may still be running which were submitted before the
+ * tracker was installed, so up to that point the pool itself is inspected.
  */
 class AsyncTaskPoolMonitor {
   private final AtomicReference<IdleMonitor> monitor = new AtomicReference<IdleMonitor>(null);
   private final ThreadPoolExecutor pool;
   private final AtomicInteger activeBarrierChecks = new AtomicInteger(0);
+  private final Optional<TaskTracker> taskTracker;
+  // set once no untracked work can remain in the pool.
+  private volatile boolean untrackedWorkDone = false;
+  private final AtomicReference<Runnable> trackedIdleCallback =
+      new AtomicReference<Runnable>(null);
 
   AsyncTaskPoolMonitor(ThreadPoolExecutor pool) {
+    this(pool, Optional.<TaskTracker>absent());
+  }
+
+  AsyncTaskPoolMonitor(ThreadPoolExecutor pool, Optional<TaskTracker> taskTracker) {
     this.pool = checkNotNull(pool);
+    this.taskTracker = checkNotNull(taskTracker);
+    if (taskTracker.isPresent()) {
+      taskTracker.get().addIdleTransitionCallback(new Runnable() {
+        @Override
+        public void run() {
+          signalTrackedIdle();
+        }
+      });
+    }
   }
 
   /**
@@ -33,6 +60,9 @@ class AsyncTaskPoolMonitor {
    * @return true if the pool is idle, false otherwise.
    */
   boolean isIdleNow() {
+    if (isTracking()) {
+      return taskTracker.get().isIdleNow();
+    }
     if (!pool.getQueue().isEmpty()) {
       return false;
     } else {
@@ -44,13 +74,31 @@ class AsyncTaskPoolMonitor {
           activeCount = activeCount - activeBarrierChecks.get();
         }
       }
+      if (0 == activeCount && taskTracker.isPresent()) {
+        // whatever runs from now on went thru the tracker.
+        untrackedWorkDone = true;
+      }
       return 0 == activeCount;
     }
   }
 
+  private boolean isTracking() {
+    return untrackedWorkDone && taskTracker.isPresent();
+  }
+
+  private void signalTrackedIdle() {
+    Runnable idleCallback = trackedIdleCallback.getAndSet(null);
+    if (null != idleCallback) {
+      idleCallback.run();
+    }
+  }
+
   /**
    * Notifies caller once the pool is idle.
    *
+   * If the pool's tasks are tracked, the caller is notified by the thread finishing the last task.
+   * Otherwise:
+   *
    * We check for idle-ness by submitting the max # of tasks the pool will take and blocking
    * the tasks until they are all executing. Then we know there are no other tasks _currently_
    * executing in the pool, we look back at the work queue to see if its backed up, if it is
@@ -63,6 +111,15 @@ class AsyncTaskPoolMonitor {
    */
   void notifyWhenIdle(final Runnable idleCallback) {
     checkNotNull(idleCallback);
+    if (isTracking()) {
+      checkState(trackedIdleCallback.compareAndSet(null, idleCallback),
+          "cannot monitor for idle recursively!");
+      // the last task may have finished before the callback was set.
+      if (taskTracker.get().isIdleNow()) {
+        signalTrackedIdle();
+      }
+      return;
+    }
     IdleMonitor myMonitor = new IdleMonitor(idleCallback);
     checkState(monitor.compareAndSet(null, myMonitor), "cannot monitor for idle recursively!");
     myMonitor.monitorForIdle();
@@ -76,6 +133,7 @@ class AsyncTaskPoolMonitor {
    * on the thread pool.
    */
   void cancelIdleMonitor() {
+    trackedIdleCallback.set(null);
     IdleMonitor myMonitor = monitor.getAndSet(null);
     if (null != myMonitor) {
       myMonitor.poison();
@@ -0,0 +1,190 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource;
+import com.google.android.apps.common.testing.ui.espresso.base.QueueInterrogator.QueueState;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
+import android.util.Log;
+import android.util.Printer;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single idling resource covering any number of background loopers.
+ *
+ * Each looper reports its own transitions, on its own thread: its IdleHandler runs once the
+ * looper has nothing left to dispatch, and marks it idle if nothing is due shortly. While idle, the
+ * looper's message logging Printer is borrowed to see the next dispatch start, which marks it busy
+ * and hands the Printer back - so only the first message after each idle period is logged to us,
+ * and any printer of the app's own is called thru and restored. The loopers share one counter of
+ * busy loopers, which is all isIdleNow reads, and the main thread is sent a single transition
+ * message when the last of them goes idle - so no looper is polled at all.
+ */
+final class BackgroundLoopersIdlingResource implements IdlingResource {
+
+  private static final String TAG = "BackgroundLoopers";
+  private static final Field looperLoggingField;
+
+  static {
+    Field loggingField = null;
+    try {
+      loggingField = Looper.class.getDeclaredField("mLogging");
+      loggingField.setAccessible(true);
+    } catch (NoSuchFieldException nsfe) {
+      Log.w(TAG, "Cannot chain existing looper printers - they will be replaced.", nsfe);
+    } catch (SecurityException se) {
+      Log.w(TAG, "Cannot chain existing looper printers - they will be replaced.", se);
+    }
+    looperLoggingField = loggingField;
+  }
+
+  private final Handler mainHandler;
+  private final List<MonitoredLooper> monitoredLoopers =
+      new CopyOnWriteArrayList<MonitoredLooper>();
+  private final AtomicInteger busyLoopers = new AtomicInteger(0);
+  private final AtomicBoolean idleTransitionPosted = new AtomicBoolean(false);
+  private final Runnable idleTransition = new Runnable() {
+    @Override
+    public void run() {
+      // on main thread, a looper may have gone busy again since this was posted.
+      idleTransitionPosted.set(false);
+      ResourceCallback callback = resourceCallback;
+      if (null != callback && 0 == busyLoopers.get()) {
+        callback.onTransitionToIdle();
+      }
+    }
+  };
+
+  private volatile ResourceCallback resourceCallback;
+
+  BackgroundLoopersIdlingResource(Looper mainLooper) {
+    this.mainHandler = new Handler(checkNotNull(mainLooper));
+  }
+
+  /**
+   * Starts monitoring the given looper. The looper counts as busy until it first goes idle.
+   *
+   * @return false if the looper was already monitored.
+   */
+  boolean addLooper(Looper looper) {
+    checkNotNull(looper);
+    checkArgument(Looper.getMainLooper() != looper, "Not for use with main looper.");
+    synchronized (monitoredLoopers) {
+      for (MonitoredLooper monitored : monitoredLoopers) {
+        if (monitored.looper == looper) {
+          return false;
+        }
+      }
+      MonitoredLooper monitored = new MonitoredLooper(looper);
+      busyLoopers.incrementAndGet();
+      monitoredLoopers.add(monitored);
+      checkState(monitored.handler.postAtFrontOfQueue(monitored), "Monitored looper exiting.");
+      return true;
+    }
+  }
+
+  @Override
+  public String getName() {
+    return TAG;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    return 0 == busyLoopers.get();
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  private void onLooperIdle() {
+    if (0 == busyLoopers.decrementAndGet() && idleTransitionPosted.compareAndSet(false, true)) {
+      mainHandler.post(idleTransition);
+    }
+  }
+
+  /**
+   * The state of one looper, only touched on that looper's thread. Runs once on the looper to hook
+   * into it.
+   */
+  private final class MonitoredLooper implements Runnable, IdleHandler, Printer {
+    private final Looper looper;
+    private final Handler handler;
+    private final QueueInterrogator interrogator;
+    private Printer chainedPrinter;
+    private boolean idle = false;
+
+    MonitoredLooper(Looper looper) {
+      this.looper = looper;
+      this.handler = new Handler(looper);
+      this.interrogator = new QueueInterrogator(looper);
+    }
+
+    @Override
+    public void run() {
+      // on monitored looper thread.
+      Looper.myQueue().addIdleHandler(this);
+    }
+
+    @Override
+    public void println(String line) {
+      // on monitored looper thread, before and after a dispatch.
+      if (null != chainedPrinter) {
+        chainedPrinter.println(line);
+      }
+      if (idle && line.startsWith(">")) {
+        idle = false;
+        busyLoopers.incrementAndGet();
+        // the after-dispatch line still comes to us, the next dispatches go to the app's printer.
+        looper.setMessageLogging(chainedPrinter);
+      }
+    }
+
+    @Override
+    public boolean queueIdle() {
+      // on monitored looper thread.
+      QueueState queueState = interrogator.determineQueueState();
+      if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
+        // also when already idle: the app may have replaced the borrowed printer meanwhile.
+        borrowPrinter();
+        if (!idle) {
+          idle = true;
+          onLooperIdle();
+        }
+      } else if (queueState == QueueState.BARRIER) {
+        // send a sentinal message that'll cause us to queueIdle again once the
+        // block is lifted.
+        handler.sendEmptyMessage(-1);
+      }
+      return true;
+    }
+
+    private void borrowPrinter() {
+      if (null == looperLoggingField) {
+        looper.setMessageLogging(this);
+        return;
+      }
+      try {
+        Printer current = (Printer) looperLoggingField.get(looper);
+        if (current != this) {
+          chainedPrinter = current;
+          looper.setMessageLogging(this);
+        }
+      } catch (IllegalAccessException iae) {
+        Log.w(TAG, "Replacing printer of: " + looper, iae);
+        looper.setMessageLogging(this);
+      }
+    }
+  }
+}
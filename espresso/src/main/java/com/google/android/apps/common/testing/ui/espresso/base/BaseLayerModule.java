@@ -61,7 +61,8 @@ public class BaseLayerModule {
       ThreadPoolExecutorExtractor extractor) {
     Optional<ThreadPoolExecutor> compatThreadPool = extractor.getCompatAsyncTaskThreadPool();
     if (compatThreadPool.isPresent()) {
-      return Optional.of(new AsyncTaskPoolMonitor(compatThreadPool.get()));
+      return Optional.of(new AsyncTaskPoolMonitor(compatThreadPool.get(),
+          CountingTaskQueue.install(compatThreadPool.get())));
     } else {
       return Optional.<AsyncTaskPoolMonitor>absent();
     }
@@ -80,7 +81,8 @@ public class BaseLayerModule {
 
   @Provides @Singleton @SdkAsyncTask
   public AsyncTaskPoolMonitor provideSdkAsyncTaskMonitor(ThreadPoolExecutorExtractor extractor) {
-    return new AsyncTaskPoolMonitor(extractor.getAsyncTaskThreadPool());
+    ThreadPoolExecutor asyncTaskPool = extractor.getAsyncTaskThreadPool();
+    return new AsyncTaskPoolMonitor(asyncTaskPool, CountingTaskQueue.install(asyncTaskPool));
 
   }
 
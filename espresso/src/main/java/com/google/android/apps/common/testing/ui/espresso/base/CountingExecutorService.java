@@ -0,0 +1,62 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ExecutorService which counts every task it hands to its delegate with a {@link TaskTracker}.
+ *
+ * All submit / invoke methods funnel thru {@link #execute}, so every task is counted exactly once.
+ */
+final class CountingExecutorService extends AbstractExecutorService {
+  private final ExecutorService delegate;
+  private final TaskTracker tracker;
+
+  CountingExecutorService(ExecutorService delegate, TaskTracker tracker) {
+    this.delegate = checkNotNull(delegate);
+    this.tracker = checkNotNull(tracker);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tracker.executeTracked(delegate, task);
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> neverRun = Lists.newArrayList();
+    for (Runnable task : delegate.shutdownNow()) {
+      if (TaskTracker.isTracked(task)) {
+        tracker.untrack(1);
+      }
+      neverRun.add((Runnable) TaskTracker.unwrap(task));
+    }
+    return neverRun;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+}
@@ -0,0 +1,253 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.jameswald.skinnylatte.common.base.Optional;
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A work queue which tracks every task offered to it with a {@link TaskTracker}.
+ *
+ * The queue is swapped in for the work queue of an existing ThreadPoolExecutor. All elements are
+ * stored in the executor's original queue, so worker threads already blocked on it keep working.
+ *
+ * The executor hands tasks directly to newly started threads without queueing them, so all core
+ * threads are started before the queue is installed, and pools which may start threads later on
+ * (see {@link #mayHandOffTasks}) are not tracked at all.
+ *
+ * Workers take the tracked tasks, which untrack themselves once run. Everything else - peek,
+ * iteration, contains, remove and drainTo - sees the original tasks, so the executor's own purge
+ * and remove still recognize cancelled futures, and tasks removed without running are untracked.
+ */
+final class CountingTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+  private static final String TAG = CountingTaskQueue.class.getSimpleName();
+  private static final String WORK_QUEUE_FIELD_NAME = "workQueue";
+
+  private final BlockingQueue<Runnable> delegate;
+  private final TaskTracker tracker;
+
+  private CountingTaskQueue(BlockingQueue<Runnable> delegate, TaskTracker tracker) {
+    this.delegate = checkNotNull(delegate);
+    this.tracker = checkNotNull(tracker);
+  }
+
+  /**
+   * Installs a counting queue as the work queue of the given pool.
+   *
+   * @return the tracker counting the pool's tasks, or absent if the pool's queue could not be
+   *     replaced or the pool may run tasks without queueing them.
+   */
+  static Optional<TaskTracker> install(ThreadPoolExecutor pool) {
+    checkNotNull(pool);
+    if (pool instanceof ScheduledThreadPoolExecutor) {
+      // its delayed queue needs its own task type - a wrapped task would never be scheduled.
+      Log.w(TAG, "Cannot count tasks of a scheduled pool: " + pool);
+      return Optional.absent();
+    }
+    if (mayHandOffTasks(pool)) {
+      Log.w(TAG, "Cannot count tasks of a pool which may run them without queueing: " + pool);
+      return Optional.absent();
+    }
+    try {
+      Field workQueueField = ThreadPoolExecutor.class.getDeclaredField(WORK_QUEUE_FIELD_NAME);
+      workQueueField.setAccessible(true);
+      synchronized (CountingTaskQueue.class) {
+        Object workQueue = workQueueField.get(pool);
+        if (workQueue instanceof CountingTaskQueue) {
+          return Optional.of(((CountingTaskQueue) workQueue).tracker);
+        }
+        pool.prestartAllCoreThreads();
+        CountingTaskQueue countingQueue =
+            new CountingTaskQueue(pool.getQueue(), new TaskTracker());
+        workQueueField.set(pool, countingQueue);
+        return Optional.of(countingQueue.tracker);
+      }
+    } catch (NoSuchFieldException nsfe) {
+      Log.w(TAG, "Cannot count tasks of: " + pool, nsfe);
+    } catch (IllegalAccessException iae) {
+      Log.w(TAG, "Cannot count tasks of: " + pool, iae);
+    }
+    return Optional.absent();
+  }
+
+  /**
+   * Checks if the pool may start a thread with a task in hand, rather than queueing the task.
+   *
+   * A pool does so when its queue refuses a task and it may grow beyond its core size, or when
+   * fewer than core size threads are alive - which, once all core threads were started, only
+   * happens after they timed out.
+   */
+  static boolean mayHandOffTasks(ThreadPoolExecutor pool) {
+    BlockingQueue<Runnable> queue = pool.getQueue();
+    // unbounded queues report their capacity as MAX_VALUE, whatever they hold, minus their size.
+    if (pool.getMaximumPoolSize() > pool.getCorePoolSize()
+        && queue.size() + queue.remainingCapacity() != Integer.MAX_VALUE) {
+      return true;
+    }
+    return Build.VERSION.SDK_INT >= 9 && pool.allowsCoreThreadTimeOut();
+  }
+
+  @Override
+  public boolean offer(Runnable task) {
+    Runnable tracked = tracker.track(task);
+    if (delegate.offer(tracked)) {
+      return true;
+    }
+    tracker.untrack(1);
+    return false;
+  }
+
+  @Override
+  public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+    Runnable tracked = tracker.track(task);
+    boolean offered = false;
+    try {
+      offered = delegate.offer(tracked, timeout, unit);
+      return offered;
+    } finally {
+      if (!offered) {
+        tracker.untrack(1);
+      }
+    }
+  }
+
+  @Override
+  public void put(Runnable task) throws InterruptedException {
+    Runnable tracked = tracker.track(task);
+    boolean queued = false;
+    try {
+      delegate.put(tracked);
+      queued = true;
+    } finally {
+      if (!queued) {
+        tracker.untrack(1);
+      }
+    }
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    return delegate.take();
+  }
+
+  @Override
+  public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.poll(timeout, unit);
+  }
+
+  @Override
+  public Runnable poll() {
+    return delegate.poll();
+  }
+
+  @Override
+  public Runnable peek() {
+    return (Runnable) TaskTracker.unwrap(delegate.peek());
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return delegate.remainingCapacity();
+  }
+
+  @Override
+  public boolean contains(Object task) {
+    if (null == task) {
+      return false;
+    }
+    for (Runnable queued : delegate) {
+      if (task.equals(TaskTracker.unwrap(queued))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean remove(Object task) {
+    if (null == task) {
+      return false;
+    }
+    for (Runnable queued : delegate) {
+      if (task.equals(TaskTracker.unwrap(queued))) {
+        if (delegate.remove(queued)) {
+          untrackIfTracked(queued);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    drainTo(Lists.<Runnable>newArrayList());
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> drained) {
+    return drainTo(drained, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Runnable> drained, int maxElements) {
+    List<Runnable> drainedHere = Lists.newArrayList();
+    int drainedCount = delegate.drainTo(drainedHere, maxElements);
+    for (Runnable task : drainedHere) {
+      untrackIfTracked(task);
+      // handing out the tracked task would untrack it a second time if it were run.
+      drained.add((Runnable) TaskTracker.unwrap(task));
+    }
+    return drainedCount;
+  }
+
+  @Override
+  public Iterator<Runnable> iterator() {
+    final Iterator<Runnable> delegateIterator = delegate.iterator();
+    return new Iterator<Runnable>() {
+      private Runnable current;
+
+      @Override
+      public boolean hasNext() {
+        return delegateIterator.hasNext();
+      }
+
+      @Override
+      public Runnable next() {
+        current = delegateIterator.next();
+        return (Runnable) TaskTracker.unwrap(current);
+      }
+
+      @Override
+      public void remove() {
+        delegateIterator.remove();
+        untrackIfTracked(current);
+      }
+    };
+  }
+
+  // Tasks queued before this queue was installed were never tracked.
+  private void untrackIfTracked(Runnable task) {
+    if (TaskTracker.isTracked(task)) {
+      tracker.untrack(1);
+    }
+  }
+}
@@ -4,11 +4,16 @@ import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 import static com.jameswald.skinnylatte.common.base.Throwables.propagate;
 
 import com.google.android.apps.common.testing.testrunner.inject.TargetContext;
+import com.google.android.apps.common.testing.ui.espresso.AppNotIdleException;
 import com.google.android.apps.common.testing.ui.espresso.EspressoException;
 import com.google.android.apps.common.testing.ui.espresso.FailureHandler;
+import com.google.android.apps.common.testing.ui.espresso.IdlingResourceTimeoutException;
+import com.google.android.apps.common.testing.ui.espresso.MainThreadStalledException;
 import com.google.android.apps.common.testing.ui.espresso.PerformException;
+import com.jameswald.skinnylatte.common.base.Optional;
 
 import android.content.Context;
+import android.util.Log;
 import android.view.View;
 
 import junit.framework.AssertionFailedError;
@@ -25,16 +30,35 @@ import javax.inject.Inject;
  */
 public final class DefaultFailureHandler implements FailureHandler {
 
+  private static final String TAG = DefaultFailureHandler.class.getSimpleName();
   private static final AtomicInteger failureCount = new AtomicInteger(0);
   private final Context appContext;
+  private final Optional<DispatchTrace> dispatchTrace;
 
-  @Inject
   public DefaultFailureHandler(@TargetContext Context appContext) {
+    this(appContext, Optional.<DispatchTrace>absent());
+  }
+
+  @Inject
+  DefaultFailureHandler(@TargetContext Context appContext, DispatchTrace dispatchTrace) {
+    this(appContext, Optional.of(dispatchTrace));
+  }
+
+  private DefaultFailureHandler(Context appContext, Optional<DispatchTrace> dispatchTrace) {
     this.appContext = checkNotNull(appContext);
+    this.dispatchTrace = checkNotNull(dispatchTrace);
   }
 
   @Override
   public void handle(Throwable error, Matcher<View> viewMatcher) {
+    if (dispatchTrace.isPresent()) {
+      if (isIdleTimeout(error)) {
+        // what the main thread was busy with is the interesting part of these failures.
+        Log.e(TAG, "Timed out waiting for idle. " + dispatchTrace.get().dump());
+      } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Test failed. " + dispatchTrace.get().dump());
+      }
+    }
     if (error instanceof EspressoException || error instanceof AssertionFailedError
         || error instanceof AssertionError) {
       throw propagate(getUserFriendlyError(error, viewMatcher));
@@ -43,6 +67,11 @@ public final class DefaultFailureHandler implements FailureHandler {
     }
   }
 
+  private static boolean isIdleTimeout(Throwable error) {
+    return error instanceof AppNotIdleException || error instanceof IdlingResourceTimeoutException
+        || error instanceof MainThreadStalledException;
+  }
+
   /**
    * When the error is coming from espresso, it is more user friendly to:
    * 1. propagate assertions as assertions
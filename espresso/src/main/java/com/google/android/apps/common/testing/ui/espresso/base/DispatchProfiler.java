@@ -0,0 +1,230 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
+
+import com.google.android.apps.common.testing.testrunner.InstrumentationRegistry;
+import com.google.android.apps.common.testing.testrunner.inject.TargetContext;
+import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
+import com.jameswald.skinnylatte.common.collect.Lists;
+import com.jameswald.skinnylatte.common.collect.Maps;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Message;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Opt-in profiler of the messages espresso dispatches on the main thread while it waits for the
+ * application to become idle.
+ *
+ * While a profile is running, every dispatch is attributed to the class of its target Handler and
+ * to the class of its callback (if any). Each class gets a count and a histogram of dispatch times.
+ * Stopping the profile reports the aggregate to the instrumentation status bundle and to a file in
+ * the target application's files dir (see {@link #PROFILE_DIR}).
+ */
+@Singleton
+public final class DispatchProfiler {
+
+  private static final String TAG = DispatchProfiler.class.getSimpleName();
+
+  /** The directory (within the target context's files dir) profiles are written to. */
+  public static final String PROFILE_DIR = "espresso_dispatch_profiles";
+
+  /** Status bundle key holding the formatted profile. */
+  public static final String REPORT_KEY_PROFILE = "espresso_dispatch_profile";
+
+  /** Status bundle key holding the profile's name. */
+  public static final String REPORT_KEY_PROFILE_NAME = "espresso_dispatch_profile_name";
+
+  // Same key / value InstrumentationTestRunner uses to identify who sent a status report.
+  private static final String REPORT_KEY_ID = "id";
+  private static final String REPORT_VALUE_ID = "EspressoDispatchProfiler";
+
+  // Test result listeners treat this code as an 'in progress' report and leave test state alone.
+  private static final int REPORT_STATUS_CODE = 2;
+
+  // bucket i holds dispatches under 2^i ms, the last bucket everything else.
+  private static final int BUCKET_COUNT = 11;
+
+  private final Context targetContext;
+
+  // guarded by this.
+  private final Map<Class<?>, Histogram> targetHistograms = Maps.newHashMap();
+  private final Map<Class<?>, Histogram> callbackHistograms = Maps.newHashMap();
+  private String profileName;
+
+  // read on every dispatch, so record() can bail out without taking the lock.
+  private volatile boolean profiling = false;
+
+  @Inject
+  DispatchProfiler(@TargetContext Context targetContext) {
+    this.targetContext = checkNotNull(targetContext);
+  }
+
+  /**
+   * Starts a new profile, typically called in a test's setUp method.
+   *
+   * @param profileName name of the profile (for example the test name) - also used as the name of
+   *     the file the profile will be written to.
+   * @throws IllegalStateException if a profile is already running.
+   */
+  public synchronized void start(String profileName) {
+    checkState(!profiling, "Profile %s is still running.", this.profileName);
+    this.profileName = checkNotNull(profileName);
+    targetHistograms.clear();
+    callbackHistograms.clear();
+    profiling = true;
+  }
+
+  /**
+   * Stops the running profile and exports it.
+   *
+   * @return the formatted profile.
+   * @throws IllegalStateException if no profile is running.
+   */
+  public synchronized String stop() {
+    checkState(profiling, "No profile is running.");
+    profiling = false;
+    String report = report();
+    export(report);
+    return report;
+  }
+
+  /**
+   * Attributes a dispatched message to its target and callback. Must be called before the
+   * message is recycled.
+   */
+  void record(Message message, long dispatchNanos) {
+    if (!profiling) {
+      return;
+    }
+    synchronized (this) {
+      if (!profiling) {
+        return;
+      }
+      if (null != message.getTarget()) {
+        histogramFor(targetHistograms, message.getTarget().getClass()).add(dispatchNanos);
+      }
+      if (null != message.getCallback()) {
+        histogramFor(callbackHistograms, message.getCallback().getClass()).add(dispatchNanos);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized String report() {
+    StringBuilder report = new StringBuilder("Dispatch profile: ")
+        .append(profileName)
+        .append("\nBy target:");
+    appendHistograms(report, targetHistograms);
+    report.append("\nBy callback:");
+    appendHistograms(report, callbackHistograms);
+    return report.toString();
+  }
+
+  private void export(String report) {
+    Bundle status = new Bundle();
+    status.putString(REPORT_KEY_ID, REPORT_VALUE_ID);
+    status.putString(REPORT_KEY_PROFILE_NAME, profileName);
+    status.putString(REPORT_KEY_PROFILE, report);
+    InstrumentationRegistry.getInstance().sendStatus(REPORT_STATUS_CODE, status);
+
+    File profileDir = new File(targetContext.getFilesDir(), PROFILE_DIR);
+    if (!profileDir.isDirectory() && !profileDir.mkdirs()) {
+      Log.w(TAG, "Could not create: " + profileDir);
+      return;
+    }
+    File profileFile = new File(profileDir, profileName.replaceAll("[^\\w.-]", "_") + ".txt");
+    Writer writer = null;
+    try {
+      writer = new FileWriter(profileFile);
+      writer.write(report);
+    } catch (IOException ioe) {
+      Log.w(TAG, "Could not write: " + profileFile, ioe);
+    } finally {
+      if (null != writer) {
+        try {
+          writer.close();
+        } catch (IOException ignored) {
+          // nothing more we can do.
+        }
+      }
+    }
+  }
+
+  private static Histogram histogramFor(Map<Class<?>, Histogram> histograms, Class<?> clazz) {
+    Histogram histogram = histograms.get(clazz);
+    if (null == histogram) {
+      histogram = new Histogram();
+      histograms.put(clazz, histogram);
+    }
+    return histogram;
+  }
+
+  private static void appendHistograms(StringBuilder report, Map<Class<?>, Histogram> histograms) {
+    List<Map.Entry<Class<?>, Histogram>> entries = Lists.newArrayList(histograms.entrySet());
+    // Most expensive first.
+    Collections.sort(entries, new Comparator<Map.Entry<Class<?>, Histogram>>() {
+      @Override
+      public int compare(Map.Entry<Class<?>, Histogram> lhs, Map.Entry<Class<?>, Histogram> rhs) {
+        long lhsNanos = lhs.getValue().totalNanos;
+        long rhsNanos = rhs.getValue().totalNanos;
+        return lhsNanos < rhsNanos ? 1 : (lhsNanos == rhsNanos ? 0 : -1);
+      }
+    });
+    for (Map.Entry<Class<?>, Histogram> entry : entries) {
+      report.append("\n  ").append(entry.getKey().getName()).append(' ');
+      entry.getValue().appendTo(report);
+    }
+  }
+
+  private static final class Histogram {
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private int count;
+    private long totalNanos;
+    private long maxNanos;
+
+    void add(long nanos) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int bucket = millis <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(millis),
+          BUCKET_COUNT - 1);
+      buckets[bucket]++;
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    void appendTo(StringBuilder report) {
+      report.append("count: ").append(count)
+          .append(" total: ").append(TimeUnit.NANOSECONDS.toMillis(totalNanos)).append("ms")
+          .append(" max: ").append(TimeUnit.NANOSECONDS.toMillis(maxNanos)).append("ms")
+          .append(" histogram: [");
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        if (i > 0) {
+          report.append(", ");
+        }
+        if (i < BUCKET_COUNT - 1) {
+          report.append('<').append(1 << i);
+        } else {
+          report.append(">=").append(1 << (i - 1));
+        }
+        report.append("ms: ").append(buckets[i]);
+      }
+      report.append(']');
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
+
+import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
+
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Remembers the last few messages espresso dispatched on the main thread.
+ *
+ * Recording happens for every message UiControllerImpl dispatches, so the trace is kept in
+ * preallocated, parallel arrays and recording never allocates. Formatting only happens when someone
+ * asks for a dump - which is when an idling policy times out or a test fails.
+ */
+@Singleton
+final class DispatchTrace {
+
+  private static final int DEFAULT_CAPACITY = 128;
+
+  private final Class<?>[] targetClasses;
+  private final Class<?>[] callbackClasses;
+  private final int[] whats;
+  private final long[] whens;
+  private final long[] dispatchedAts;
+  private final long[] durationNanos;
+
+  // guarded by this.
+  private int nextSlot = 0;
+  private long totalRecorded = 0;
+
+  @Inject
+  DispatchTrace() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  @VisibleForTesting
+  DispatchTrace(int capacity) {
+    checkArgument(capacity > 0);
+    targetClasses = new Class<?>[capacity];
+    callbackClasses = new Class<?>[capacity];
+    whats = new int[capacity];
+    whens = new long[capacity];
+    dispatchedAts = new long[capacity];
+    durationNanos = new long[capacity];
+  }
+
+  /**
+   * Records a dispatched message. Must be called before the message is recycled.
+   *
+   * @param message the message which was dispatched.
+   * @param dispatchNanos how long the target took to handle the message.
+   */
+  synchronized void record(Message message, long dispatchNanos) {
+    int slot = nextSlot;
+    targetClasses[slot] = null == message.getTarget() ? null : message.getTarget().getClass();
+    callbackClasses[slot] = null == message.getCallback() ? null : message.getCallback().getClass();
+    whats[slot] = message.what;
+    whens[slot] = message.getWhen();
+    dispatchedAts[slot] = SystemClock.uptimeMillis();
+    durationNanos[slot] = dispatchNanos;
+    nextSlot = (slot + 1) % whats.length;
+    totalRecorded++;
+  }
+
+  /**
+   * Formats the recorded dispatches, oldest first.
+   */
+  synchronized String dump() {
+    int size = (int) Math.min(totalRecorded, whats.length);
+    StringBuilder dump = new StringBuilder("Last ")
+        .append(size)
+        .append(" of ")
+        .append(totalRecorded)
+        .append(" messages dispatched on the main thread (uptime: ")
+        .append(SystemClock.uptimeMillis())
+        .append("):");
+    int slot = (nextSlot - size + whats.length) % whats.length;
+    for (int i = 0; i < size; i++) {
+      dump.append("\n  at ")
+          .append(dispatchedAts[slot])
+          .append(" target: ")
+          .append(nameOf(targetClasses[slot]))
+          .append(" callback: ")
+          .append(nameOf(callbackClasses[slot]))
+          .append(" what: ")
+          .append(whats[slot])
+          .append(" when: ")
+          .append(whens[slot])
+          .append(" took: ")
+          .append(TimeUnit.NANOSECONDS.toMillis(durationNanos[slot]))
+          .append("ms");
+      slot = (slot + 1) % whats.length;
+    }
+    return dump.toString();
+  }
+
+  private static String nameOf(Class<?> clazz) {
+    return null == clazz ? "none" : clazz.getName();
+  }
+}
@@ -0,0 +1,115 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Throwables.propagate;
+
+import com.jameswald.skinnylatte.common.base.Optional;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the frame schedule of a thread's Choreographer.
+ *
+ * The main thread draws in frames: a layout or invalidate schedules a frame, which runs on the
+ * next vsync. Whether a frame is scheduled and when the next vsync falls lets idle detection
+ * wait exactly for pending frames to be drawn, rather than guessing with a fixed lookahead window.
+ *
+ * Only used on the thread which owns the Choreographer.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class FrameClock {
+  private static final String TAG = "FrameClock";
+
+  private static final Field frameScheduledField;
+  private static final Field lastFrameTimeNanosField;
+  private static final Field frameIntervalNanosField;
+
+  static {
+    Field scheduledField = null;
+    Field lastFrameField = null;
+    Field intervalField = null;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      try {
+        scheduledField = Choreographer.class.getDeclaredField("mFrameScheduled");
+        scheduledField.setAccessible(true);
+        lastFrameField = Choreographer.class.getDeclaredField("mLastFrameTimeNanos");
+        lastFrameField.setAccessible(true);
+        intervalField = Choreographer.class.getDeclaredField("mFrameIntervalNanos");
+        intervalField.setAccessible(true);
+      } catch (NoSuchFieldException nsfe) {
+        Log.w(TAG, "Choreographer internals unavailable, falling back to lookahead.", nsfe);
+        scheduledField = null;
+      } catch (SecurityException se) {
+        Log.w(TAG, "Choreographer internals unavailable, falling back to lookahead.", se);
+        scheduledField = null;
+      }
+    }
+    frameScheduledField = scheduledField;
+    lastFrameTimeNanosField = lastFrameField;
+    frameIntervalNanosField = intervalField;
+  }
+
+  private final Choreographer choreographer;
+
+  private FrameClock(Choreographer choreographer) {
+    this.choreographer = checkNotNull(choreographer);
+  }
+
+  /**
+   * Returns the frame clock of the calling thread, or absent if frames cannot be inspected on this
+   * API level.
+   */
+  static Optional<FrameClock> forCurrentThread() {
+    if (null == frameScheduledField) {
+      return Optional.absent();
+    }
+    return Optional.of(new FrameClock(Choreographer.getInstance()));
+  }
+
+  /**
+   * Checks if a frame has been scheduled and not yet drawn.
+   */
+  boolean isFramePending() {
+    try {
+      return frameScheduledField.getBoolean(choreographer);
+    } catch (IllegalAccessException iae) {
+      throw propagate(iae);
+    }
+  }
+
+  /**
+   * Returns the vsync time (in nanos) of the last frame drawn. Changes once a pending frame has
+   * been drawn.
+   */
+  long lastFrameTimeNanos() {
+    try {
+      return lastFrameTimeNanosField.getLong(choreographer);
+    } catch (IllegalAccessException iae) {
+      throw propagate(iae);
+    }
+  }
+
+  /**
+   * Returns the uptime (in millis) of the next vsync.
+   */
+  long nextFrameUptimeMillis() {
+    try {
+      long intervalNanos = frameIntervalNanosField.getLong(choreographer);
+      if (intervalNanos <= 0) {
+        return SystemClock.uptimeMillis();
+      }
+      long sinceLastFrameNanos = System.nanoTime() - lastFrameTimeNanos();
+      long untilNextFrameNanos = intervalNanos - (sinceLastFrameNanos % intervalNanos);
+      return SystemClock.uptimeMillis() + TimeUnit.NANOSECONDS.toMillis(untilNextFrameNanos);
+    } catch (IllegalAccessException iae) {
+      throw propagate(iae);
+    }
+  }
+}
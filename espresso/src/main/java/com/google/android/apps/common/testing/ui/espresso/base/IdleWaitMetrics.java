@@ -0,0 +1,223 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.google.android.apps.common.testing.ui.espresso.ViewAction;
+import com.jameswald.skinnylatte.common.collect.Lists;
+import com.jameswald.skinnylatte.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Measures how long espresso waits for the application to become idle, broken down by what it was
+ * waiting on.
+ *
+ * UiControllerImpl reports how long it waited for each IdleCondition (and for the main queue to
+ * drain once they were all met) and IdlingResourceRegistry reports how long each idling resource
+ * stayed busy while espresso was waiting on it. Waits are attributed to the interaction (a
+ * ViewInteraction perform or check) which is running, handed to listeners when it ends and
+ * aggregated into a summary - typically fetched once per test from tearDown.
+ *
+ * All recording happens on the main thread.
+ */
+@Singleton
+public final class IdleWaitMetrics {
+
+  /** The source main queue waits are attributed to. */
+  public static final String MAIN_QUEUE = "MAIN_QUEUE";
+
+  private static final String RESOURCE_PREFIX = "IdlingResource: ";
+
+  /**
+   * Receives the idle waits of every interaction. Called on the main thread.
+   */
+  public interface Listener {
+    void onInteractionFinished(InteractionWaits waits);
+  }
+
+  /**
+   * The idle waits of a single interaction.
+   */
+  public static final class InteractionWaits {
+    private final String kind;
+    private final Object subject;
+    private final long totalWaitMillis;
+    private final Map<String, Long> waitMillisBySource;
+
+    private InteractionWaits(String kind, Object subject, long totalWaitMillis,
+        Map<String, Long> waitMillisBySource) {
+      this.kind = kind;
+      this.subject = subject;
+      this.totalWaitMillis = totalWaitMillis;
+      this.waitMillisBySource = Collections.unmodifiableMap(waitMillisBySource);
+    }
+
+    /** Describes the interaction, for example the action it performed. */
+    public String getInteraction() {
+      // only described when asked for, most interactions are never looked at.
+      String description = subject instanceof ViewAction
+          ? ((ViewAction) subject).getDescription() : String.valueOf(subject);
+      return kind + ": " + description;
+    }
+
+    /** The wall time the interaction spent waiting for idle. */
+    public long getTotalWaitMillis() {
+      return totalWaitMillis;
+    }
+
+    /**
+     * The wall time spent waiting on each source. Sources are IdleCondition names,
+     * {@link #MAIN_QUEUE} and idling resource names prefixed with 'IdlingResource: '. Sources are
+     * waited on in parallel, so these may add up to more than the total.
+     */
+    public Map<String, Long> getWaitMillisBySource() {
+      return waitMillisBySource;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s waited: %sms %s", getInteraction(), totalWaitMillis, waitMillisBySource);
+    }
+  }
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+  // guarded by this.
+  private final Map<String, SourceTotal> summary = Maps.newHashMap();
+  private long summaryWaitMillis = 0;
+  private int summaryInteractions = 0;
+
+  // guarded by this, only non-null while an interaction is running.
+  private Map<String, Long> interactionWaits;
+  private long interactionWaitMillis;
+
+  @Inject
+  public IdleWaitMetrics() {}
+
+  public void addListener(Listener listener) {
+    listeners.add(checkNotNull(listener));
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Starts attributing waits to a new interaction.
+   */
+  public synchronized void beginInteraction() {
+    interactionWaits = Maps.newHashMap();
+    interactionWaitMillis = 0;
+  }
+
+  /**
+   * Ends the running interaction and hands its waits to the listeners.
+   *
+   * @param kind the kind of interaction which ended, for example 'perform' or 'check'.
+   * @param subject the action or assertion of the interaction - only described if a listener asks
+   *     for {@link InteractionWaits#getInteraction}.
+   */
+  public void endInteraction(String kind, Object subject) {
+    InteractionWaits waits;
+    synchronized (this) {
+      if (null == interactionWaits) {
+        return;
+      }
+      waits = listeners.isEmpty() ? null : new InteractionWaits(checkNotNull(kind),
+          checkNotNull(subject), interactionWaitMillis, interactionWaits);
+      interactionWaits = null;
+      summaryInteractions++;
+    }
+    if (null == waits) {
+      return;
+    }
+    for (Listener listener : listeners) {
+      listener.onInteractionFinished(waits);
+    }
+  }
+
+  /**
+   * Formats the waits recorded since the last call, longest total wait first, and starts a new
+   * summary.
+   */
+  public synchronized String summarizeAndReset() {
+    List<Map.Entry<String, SourceTotal>> sources = Lists.newArrayList(summary.entrySet());
+    Collections.sort(sources, new Comparator<Map.Entry<String, SourceTotal>>() {
+      @Override
+      public int compare(Map.Entry<String, SourceTotal> a, Map.Entry<String, SourceTotal> b) {
+        return Long.signum(b.getValue().totalMillis - a.getValue().totalMillis);
+      }
+    });
+    StringBuilder report = new StringBuilder("Idle waits over ")
+        .append(summaryInteractions)
+        .append(" interactions, total: ")
+        .append(summaryWaitMillis)
+        .append("ms");
+    for (Map.Entry<String, SourceTotal> source : sources) {
+      report.append("\n  ")
+          .append(source.getKey())
+          .append(" total: ")
+          .append(source.getValue().totalMillis)
+          .append("ms max: ")
+          .append(source.getValue().maxMillis)
+          .append("ms waits: ")
+          .append(source.getValue().count);
+    }
+    summary.clear();
+    summaryWaitMillis = 0;
+    summaryInteractions = 0;
+    return report.toString();
+  }
+
+  /**
+   * Records a single loop of the main thread, waiting for idle or for an event to be injected.
+   */
+  synchronized void recordLoop(long waitMillis) {
+    summaryWaitMillis += waitMillis;
+    if (null != interactionWaits) {
+      interactionWaitMillis += waitMillis;
+    }
+  }
+
+  synchronized void recordConditionWait(String conditionName, long waitMillis) {
+    record(conditionName, waitMillis);
+  }
+
+  synchronized void recordResourceWait(String resourceName, long waitMillis) {
+    record(RESOURCE_PREFIX + resourceName, waitMillis);
+  }
+
+  private void record(String source, long waitMillis) {
+    SourceTotal total = summary.get(source);
+    if (null == total) {
+      total = new SourceTotal();
+      summary.put(source, total);
+    }
+    total.add(waitMillis);
+    if (null != interactionWaits) {
+      Long interactionTotal = interactionWaits.get(source);
+      interactionWaits.put(source,
+          null == interactionTotal ? waitMillis : interactionTotal + waitMillis);
+    }
+  }
+
+  private static final class SourceTotal {
+    private long totalMillis;
+    private long maxMillis;
+    private int count;
+
+    private void add(long waitMillis) {
+      totalMillis += waitMillis;
+      maxMillis = Math.max(maxMillis, waitMillis);
+      count++;
+    }
+  }
+}
@@ -9,20 +9,33 @@ import com.google.android.apps.common.testing.ui.espresso.IdlingPolicy;
 import com.google.android.apps.common.testing.ui.espresso.IdlingResource;
 import com.google.android.apps.common.testing.ui.espresso.IdlingResource.ResourceCallback;
 import com.jameswald.skinnylatte.common.collect.Lists;
+import com.jameswald.skinnylatte.common.collect.Maps;
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
  * Keeps track of user-registered {@link IdlingResource}s.
+ *
+ * Resources are keyed by name. The registry remembers which resources it believes are busy: a
+ * resource becomes busy when it is polled and reports it is not idle, and idle again only thru its
+ * {@link ResourceCallback}. While any resource is busy, checking for idleness costs nothing. Once
+ * they are all idle they must be polled, since resources do not report going busy.
+ *
+ * Polling stops at the first busy resource, so resources are polled in order of how likely they
+ * are to be busy relative to how long their isIdleNow takes. Both are measured as resources are
+ * polled, and the order is recomputed every few polling passes.
  */
 @Singleton
 public final class IdlingResourceRegistry {
@@ -33,6 +46,15 @@ public final class IdlingResourceRegistry {
   private static final int IDLE_WARNING_REACHED = 3;
   private static final int POSSIBLE_RACE_CONDITION_DETECTED = 4;
   private static final Object TIMEOUT_MESSAGE_TAG = new Object();
+  private static final int POLLING_PASSES_PER_REORDER = 16;
+
+  private static final Comparator<ResourceState> MOST_LIKELY_BUSY_PER_NANO_FIRST =
+      new Comparator<ResourceState>() {
+        @Override
+        public int compare(ResourceState a, ResourceState b) {
+          return Double.compare(b.pollScore, a.pollScore);
+        }
+      };
 
   private static final IdleNotificationCallback NO_OP_CALLBACK = new IdleNotificationCallback() {
 
@@ -46,18 +68,30 @@ public final class IdlingResourceRegistry {
     public void resourcesHaveTimedOut(List<String> busys) {}
   };
 
-  // resources and idleState should only be accessed on main thread
-  private final List<IdlingResource> resources = Lists.newArrayList();
-  // idleState.get(i) == true indicates resources.get(i) is idle, false indicates it's busy
-  private final BitSet idleState = new BitSet();
+  // resources, pollOrder, resourcesByName and busyCount should only be accessed on main thread
+  private final List<ResourceState> resources = Lists.newArrayList();
+  private final List<ResourceState> pollOrder = Lists.newArrayList();
+  private int passesSinceReorder = 0;
+  // created on first registerLooper, only accessed on main thread.
+  private BackgroundLoopersIdlingResource backgroundLoopers;
+  private final Map<String, ResourceState> resourcesByName = Maps.newHashMap();
+  private int busyCount = 0;
   private final Looper looper;
   private final Handler handler;
   private final Dispatcher dispatcher;
+  private final IdleWaitMetrics idleWaitMetrics;
   private IdleNotificationCallback idleNotificationCallback = NO_OP_CALLBACK;
+  // when the current idle notification was requested, only meaningful while one is pending.
+  private long waitStartMillis;
 
-  @Inject
   public IdlingResourceRegistry(Looper looper) {
+    this(looper, new IdleWaitMetrics());
+  }
+
+  @Inject
+  IdlingResourceRegistry(Looper looper, IdleWaitMetrics idleWaitMetrics) {
     this.looper = looper;
+    this.idleWaitMetrics = checkNotNull(idleWaitMetrics);
     this.dispatcher = new Dispatcher();
     this.handler = new Handler(looper, dispatcher);
   }
@@ -74,49 +108,170 @@ public final class IdlingResourceRegistry {
           register(resource);
         }
       });
-    } else {      
-      for (IdlingResource oldResource : resources) {
-        if (resource.getName().equals(oldResource.getName())) {
-          // This does not throw an error to avoid leaving tests that register resource in test
-          // setup in an undeterministic state (we cannot assume that everyone clears vm state
-          // between each test run)
-          Log.e(TAG, String.format("Attempted to register resource with same names:" +
-              " %s. R1: %s R2: %s.\nDuplicate resource registration will be ignored.",
-              resource.getName(), resource, oldResource));
-          return;
+    } else {
+      ResourceState oldState = resourcesByName.get(resource.getName());
+      if (null != oldState) {
+        // This does not throw an error to avoid leaving tests that register resource in test
+        // setup in an undeterministic state (we cannot assume that everyone clears vm state
+        // between each test run)
+        Log.e(TAG, String.format("Attempted to register resource with same names:" +
+            " %s. R1: %s R2: %s.\nDuplicate resource registration will be ignored.",
+            resource.getName(), resource, oldState.resource));
+        return;
+      }
+      ResourceState state =
+          new ResourceState(resource, resources.size(), pollOrder.size(), handler);
+      resources.add(state);
+      pollOrder.add(state);
+      resourcesByName.put(resource.getName(), state);
+      resource.registerIdleTransitionCallback(state.callback);
+      if (!poll(state)) {
+        markBusy(state);
+      }
+    }
+  }
+
+  /**
+   * Unregisters the given resource. Transitions to idle the resource reports afterwards are
+   * ignored and its callback no longer refers to this registry.
+   */
+  public void unregister(final IdlingResource resource) {
+    checkNotNull(resource);
+    if (Looper.myLooper() != looper) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          unregister(resource);
         }
+      });
+    } else {
+      ResourceState state = resourcesByName.get(resource.getName());
+      if (null == state || state.resource != resource) {
+        Log.w(TAG, String.format("Attempted to unregister resource which is not registered: %s. "
+            + "Request will be ignored.", resource.getName()));
+        return;
+      }
+      resourcesByName.remove(resource.getName());
+      // swap the last resource into the vacated slot.
+      ResourceState last = resources.remove(resources.size() - 1);
+      if (last != state) {
+        last.position = state.position;
+        resources.set(last.position, last);
+      }
+      // same in the poll order - the moved resource is put back in place by the next reorder.
+      ResourceState lastPolled = pollOrder.remove(pollOrder.size() - 1);
+      if (lastPolled != state) {
+        lastPolled.pollPosition = state.pollPosition;
+        pollOrder.set(lastPolled.pollPosition, lastPolled);
+      }
+      state.callback.release();
+      if (!state.idle) {
+        markIdle(state);
       }
-      resources.add(resource);
-      final int position = resources.size() - 1;
-      registerToIdleCallback(resource, position);
-      idleState.set(position, resource.isIdleNow());
     }
   }
 
-  public void registerLooper(Looper looper, boolean considerWaitIdle) {
+  /**
+   * Registers a background looper. Loopers are monitored together by a single resource, unless
+   * considerWaitIdle is set - those are monitored on their own, by checking their thread's state.
+   */
+  public void registerLooper(final Looper looper, boolean considerWaitIdle) {
     checkNotNull(looper);
     checkArgument(Looper.getMainLooper() != looper, "Not intended for use with main looper!");
-    register(new LooperIdlingResource(looper, considerWaitIdle));
-  }
-
-  private void registerToIdleCallback(IdlingResource resource, final int position) {
-    resource.registerIdleTransitionCallback(new ResourceCallback() {
-      @Override
-      public void onTransitionToIdle() {
-        Message m = handler.obtainMessage(DYNAMIC_RESOURCE_HAS_IDLED);
-        m.arg1 = position;
-        handler.sendMessage(m);
+    if (considerWaitIdle) {
+      register(new LooperIdlingResource(looper, considerWaitIdle));
+    } else if (Looper.myLooper() != this.looper) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          registerLooper(looper, false);
+        }
+      });
+    } else {
+      if (null == backgroundLoopers) {
+        backgroundLoopers = new BackgroundLoopersIdlingResource(this.looper);
+        register(backgroundLoopers);
       }
-    });
+      if (!backgroundLoopers.addLooper(looper)) {
+        Log.e(TAG, String.format("Attempted to register looper twice: %s. "
+            + "Duplicate registration will be ignored.", looper));
+      }
+    }
   }
 
   boolean allResourcesAreIdle() {
     checkState(Looper.myLooper() == looper);
-    for (int i = idleState.nextSetBit(0); i >= 0 && i < resources.size();
-        i = idleState.nextSetBit(i + 1)) {
-      idleState.set(i, resources.get(i).isIdleNow());
+    if (busyCount > 0) {
+      // a busy resource has to tell us when it goes idle.
+      return false;
+    }
+    if (++passesSinceReorder >= POLLING_PASSES_PER_REORDER) {
+      reorderPolling();
+    }
+    for (int i = 0; i < pollOrder.size(); i++) {
+      ResourceState state = pollOrder.get(i);
+      if (!poll(state)) {
+        markBusy(state);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Asks the resource whether it is idle, keeping track of how often it is busy and how long it
+   * takes to answer.
+   */
+  private static boolean poll(ResourceState state) {
+    long start = System.nanoTime();
+    boolean idle = state.resource.isIdleNow();
+    state.pollNanos += System.nanoTime() - start;
+    state.polls++;
+    if (!idle) {
+      state.busyPolls++;
+    }
+    return idle;
+  }
+
+  private void reorderPolling() {
+    passesSinceReorder = 0;
+    for (int i = 0; i < pollOrder.size(); i++) {
+      ResourceState state = pollOrder.get(i);
+      // smoothed so resources which have hardly been polled still get a sensible score.
+      double busyProbability = (state.busyPolls + 1.0) / (state.polls + 2.0);
+      double averagePollNanos = (state.pollNanos + 1000.0) / (state.polls + 1.0);
+      state.pollScore = busyProbability / averagePollNanos;
+    }
+    Collections.sort(pollOrder, MOST_LIKELY_BUSY_PER_NANO_FIRST);
+    for (int i = 0; i < pollOrder.size(); i++) {
+      pollOrder.get(i).pollPosition = i;
+    }
+  }
+
+  private void markBusy(ResourceState state) {
+    state.idle = false;
+    state.busySinceMillis = SystemClock.uptimeMillis();
+    busyCount++;
+  }
+
+  private void markIdle(ResourceState state) {
+    recordWaitIfWaiting(state);
+    state.idle = true;
+    busyCount--;
+    if (0 == busyCount) {
+      try {
+        idleNotificationCallback.allResourcesIdle();
+      } finally {
+        dispatcher.deregister();
+      }
+    }
+  }
+
+  private void recordWaitIfWaiting(ResourceState state) {
+    if (idleNotificationCallback != NO_OP_CALLBACK) {
+      idleWaitMetrics.recordResourceWait(state.resource.getName(),
+          SystemClock.uptimeMillis() - Math.max(state.busySinceMillis, waitStartMillis));
     }
-    return idleState.cardinality() == resources.size();
   }
 
   interface IdleNotificationCallback {
@@ -135,6 +290,7 @@ public final class IdlingResourceRegistry {
       callback.allResourcesIdle();
     } else {
       idleNotificationCallback = callback;
+      waitStartMillis = SystemClock.uptimeMillis();
       scheduleTimeoutMessages();
     }
   }
@@ -157,17 +313,17 @@ public final class IdlingResourceRegistry {
 
   private List<String> getBusyResources() {
     List<String> busyResourceNames = Lists.newArrayList();
-    List<Integer> racyResources = Lists.newArrayList();
+    List<ResourceState> racyResources = Lists.newArrayList();
 
     for (int i = 0; i < resources.size(); i++) {
-      IdlingResource resource = resources.get(i);
-      if (!idleState.get(i)) {
-        if (resource.isIdleNow()) {
+      ResourceState state = resources.get(i);
+      if (!state.idle) {
+        if (poll(state)) {
           // We have not been notified of a BUSY -> IDLE transition, but the resource is telling us
           // its that its idle. Either it's a race condition or is this resource buggy.
-          racyResources.add(i);
+          racyResources.add(state);
         } else {
-          busyResourceNames.add(resource.getName());
+          busyResourceNames.add(state.resource.getName());
         }
       }
     }
@@ -208,13 +364,10 @@ public final class IdlingResourceRegistry {
     }
 
     private void handleResourceIdled(Message m) {
-      idleState.set(m.arg1, true);
-      if (idleState.cardinality() == resources.size()) {
-        try {
-          idleNotificationCallback.allResourcesIdle();
-        } finally {
-          deregister();
-        }
+      ResourceState state = (ResourceState) m.obj;
+      // ignore resources which have been unregistered since sending the message.
+      if (!state.idle && state == resourcesByName.get(state.resource.getName())) {
+        markIdle(state);
       }
     }
 
@@ -253,21 +406,80 @@ public final class IdlingResourceRegistry {
 
     @SuppressWarnings("unchecked")
     private void handleRaceCondition(Message m) {
-      for (Integer i : (List<Integer>) m.obj) {
-        if (idleState.get(i)) {
-          // it was a race... i is now idle, everything is fine...
+      for (ResourceState state : (List<ResourceState>) m.obj) {
+        if (state.idle) {
+          // it was a race... state is now idle (or unregistered), everything is fine...
         } else {
           throw new IllegalStateException(String.format(
               "Resource %s isIdleNow() is returning true, but a message indicating that the "
               + "resource has transitioned from busy to idle was never sent.",
-              resources.get(i).getName()));
+              state.resource.getName()));
         }
       }
     }
 
     private void deregister() {
+      // the wait is abandoned, account for the resources which are still busy.
+      for (int i = 0; busyCount > 0 && i < resources.size(); i++) {
+        ResourceState state = resources.get(i);
+        if (!state.idle) {
+          recordWaitIfWaiting(state);
+        }
+      }
       handler.removeCallbacksAndMessages(TIMEOUT_MESSAGE_TAG);
       idleNotificationCallback = NO_OP_CALLBACK;
     }
   }
+
+  private static final class ResourceState {
+    private final IdlingResource resource;
+    private final RegistryCallback callback;
+    // indexes into resources and pollOrder.
+    private int position;
+    private int pollPosition;
+    private boolean idle = true;
+    private long busySinceMillis;
+    // polling statistics.
+    private int polls;
+    private int busyPolls;
+    private long pollNanos;
+    private double pollScore;
+
+    private ResourceState(IdlingResource resource, int position, int pollPosition,
+        Handler handler) {
+      this.resource = resource;
+      this.position = position;
+      this.pollPosition = pollPosition;
+      this.callback = new RegistryCallback(this, handler);
+    }
+  }
+
+  /**
+   * The callback handed to a resource. Unregistering a resource releases its callback, after
+   * which the resource no longer keeps the registry reachable and its transitions are dropped.
+   */
+  private static final class RegistryCallback implements ResourceCallback {
+    // written on main thread, read from any thread.
+    private volatile ResourceState state;
+    private volatile Handler handler;
+
+    private RegistryCallback(ResourceState state, Handler handler) {
+      this.state = state;
+      this.handler = handler;
+    }
+
+    @Override
+    public void onTransitionToIdle() {
+      ResourceState myState = state;
+      Handler myHandler = handler;
+      if (null != myState && null != myHandler) {
+        myHandler.sendMessage(myHandler.obtainMessage(DYNAMIC_RESOURCE_HAS_IDLED, myState));
+      }
+    }
+
+    private void release() {
+      state = null;
+      handler = null;
+    }
+  }
 }
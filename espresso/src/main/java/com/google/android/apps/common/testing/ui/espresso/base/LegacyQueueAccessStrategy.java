@@ -0,0 +1,54 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Throwables.propagate;
+
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A {@link QueueAccessStrategy} which resolves the calling thread's queue on every call to
+ * {@link #next()}. This is how espresso has always pumped the queue, it is kept as the fallback for
+ * API levels the {@link ReflectiveQueueAccessStrategy} has not been verified against.
+ */
+final class LegacyQueueAccessStrategy implements QueueAccessStrategy {
+
+  private final MessageQueue queue;
+  private final Method nextMethod;
+  private final Field headField;
+
+  LegacyQueueAccessStrategy(MessageQueue queue, Method nextMethod, Field headField) {
+    this.queue = checkNotNull(queue);
+    this.nextMethod = checkNotNull(nextMethod);
+    this.headField = checkNotNull(headField);
+  }
+
+  @Override
+  public Message next() {
+    try {
+      return (Message) nextMethod.invoke(Looper.myQueue());
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    } catch (IllegalArgumentException e) {
+      throw propagate(e);
+    } catch (InvocationTargetException e) {
+      throw propagate(e);
+    } catch (SecurityException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public Message peekHead() {
+    try {
+      return (Message) headField.get(queue);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+}
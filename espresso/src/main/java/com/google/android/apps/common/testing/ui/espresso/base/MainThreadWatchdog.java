@@ -0,0 +1,118 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingPolicies;
+import com.google.android.apps.common.testing.ui.espresso.MainThreadStalledException;
+import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Waits for work handed to the main thread, failing early if the main thread stalls.
+ *
+ * While waiting, a heartbeat message is posted to the main looper. Heartbeats are dispatched by
+ * the looper itself or by espresso's own loop, so as long as the main thread keeps processing
+ * messages they run promptly. If one stays pending for longer than the stall timeout, the main
+ * thread's stack is sampled a few times and the wait fails with a
+ * {@link MainThreadStalledException} holding the samples.
+ */
+@Singleton
+public final class MainThreadWatchdog {
+
+  private static final long CHECK_INTERVAL_MILLIS = 500;
+  private static final int STACK_SAMPLES = 3;
+  private static final long STACK_SAMPLE_INTERVAL_MILLIS = 100;
+
+  private final Handler mainHandler;
+  private final Thread mainThread;
+
+  @Inject
+  public MainThreadWatchdog(Looper mainLooper) {
+    this.mainHandler = new Handler(checkNotNull(mainLooper));
+    this.mainThread = mainLooper.getThread();
+  }
+
+  /**
+   * Waits for the given main thread task to complete and returns its result.
+   *
+   * @throws MainThreadStalledException if the main thread stalls before the task completes. The
+   *     task is cancelled if it has not started yet.
+   */
+  public <T> T await(Future<T> mainThreadTask) throws InterruptedException, ExecutionException {
+    checkNotNull(mainThreadTask);
+    long stallTimeoutMillis = IdlingPolicies.getMainThreadStallTimeoutMillis();
+    if (stallTimeoutMillis <= 0) {
+      return mainThreadTask.get();
+    }
+    Heartbeat heartbeat = null;
+    while (true) {
+      try {
+        return mainThreadTask.get(CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException te) {
+        if (null == heartbeat || heartbeat.hasRun()) {
+          heartbeat = new Heartbeat();
+          mainHandler.post(heartbeat);
+        } else if (heartbeat.pendingMillis() >= stallTimeoutMillis) {
+          mainThreadTask.cancel(false);
+          throw new MainThreadStalledException(describeStall(heartbeat.pendingMillis()));
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  String describeStall(long stalledMillis) throws InterruptedException {
+    StringBuilder description = new StringBuilder("The main thread has not processed a message")
+        .append(" for ")
+        .append(stalledMillis)
+        .append("ms. Main thread samples:");
+    StackTraceElement[] previous = null;
+    for (int i = 0; i < STACK_SAMPLES; i++) {
+      if (i > 0) {
+        Thread.sleep(STACK_SAMPLE_INTERVAL_MILLIS);
+      }
+      StackTraceElement[] sample = mainThread.getStackTrace();
+      description.append("\nSample ").append(i + 1).append(" (").append(mainThread.getState())
+          .append("):");
+      if (Arrays.equals(sample, previous)) {
+        description.append(" same as previous sample.");
+      } else {
+        for (StackTraceElement element : sample) {
+          description.append("\n    at ").append(element);
+        }
+      }
+      previous = sample;
+    }
+    return description.toString();
+  }
+
+  private static final class Heartbeat implements Runnable {
+    private final long postedAt = SystemClock.uptimeMillis();
+    private volatile boolean ran = false;
+
+    @Override
+    public void run() {
+      ran = true;
+    }
+
+    boolean hasRun() {
+      return ran;
+    }
+
+    long pendingMillis() {
+      return SystemClock.uptimeMillis() - postedAt;
+    }
+  }
+}
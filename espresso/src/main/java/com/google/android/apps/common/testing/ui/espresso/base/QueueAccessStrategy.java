@@ -0,0 +1,30 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import android.os.Message;
+
+/**
+ * Pulls messages off of and peeks into a single {@link android.os.MessageQueue}. The platform does
+ * not expose either operation, so implementors are expected to reach into the queue's internals in
+ * whatever way the current API level allows.
+ */
+interface QueueAccessStrategy {
+
+  /**
+   * Removes the next message from the queue, blocking until one is due.
+   *
+   * Must only be called from the thread which owns the queue.
+   *
+   * @return the next message to be dispatched, never null while the looper is alive.
+   */
+  Message next();
+
+  /**
+   * Returns the message at the head of the queue without removing it.
+   *
+   * Callers must hold the queue's monitor while calling this method and while inspecting the
+   * returned message.
+   *
+   * @return the head message, or null if the queue is empty.
+   */
+  Message peekHead();
+}
@@ -4,6 +4,11 @@ import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
 import static com.jameswald.skinnylatte.common.base.Throwables.propagate;
 
+import com.google.android.apps.common.testing.ui.espresso.IdlingPolicies;
+import com.google.android.apps.common.testing.ui.espresso.IgnoredMessages;
+import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
+
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -12,7 +17,6 @@ import android.os.SystemClock;
 import android.util.Log;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -29,14 +33,32 @@ final class QueueInterrogator {
 
   private static final Method messageQueueNextMethod;
   private static final Field messageQueueHeadField;
+  private static final Field messageNextField;
   private static final int LOOKAHEAD_MILLIS = 15;
 
+  // The MessageQueue internals we depend on have been verified up to this API level.
+  private static final int MAX_VERIFIED_SDK_INT = 20;
+
   private final Looper interrogatedLooper;
+  private final Thread interrogatedThread;
   private volatile MessageQueue interrogatedQueue;
+  private volatile QueueAccessStrategy accessStrategy;
 
   static {
     Method nextMethod = null;
     Field headField = null;
+    Field nextField = null;
+    try {
+      // only needed to look past ignored messages, so failing to find it is not fatal.
+      nextField = Message.class.getDeclaredField("next");
+      nextField.setAccessible(true);
+    } catch (NoSuchFieldException e) {
+      Log.w(TAG, "Cannot look past ignored messages.", e);
+    } catch (SecurityException e) {
+      Log.w(TAG, "Cannot look past ignored messages.", e);
+    } finally {
+      messageNextField = nextField;
+    }
     try {
       nextMethod = MessageQueue.class.getDeclaredMethod("next");
       nextMethod.setAccessible(true);
@@ -67,66 +89,95 @@ final class QueueInterrogator {
 
   QueueInterrogator(Looper interrogatedLooper) {
     this.interrogatedLooper = checkNotNull(interrogatedLooper);
+    this.interrogatedThread = interrogatedLooper.getThread();
     checkNotNull(messageQueueHeadField);
     checkNotNull(messageQueueNextMethod);
   }
 
+  /**
+   * Selects how the given queue will be accessed on the running API level.
+   */
+  @VisibleForTesting
+  static QueueAccessStrategy accessStrategyFor(MessageQueue queue, int sdkVersion) {
+    checkNotNull(queue);
+    if (sdkVersion <= MAX_VERIFIED_SDK_INT) {
+      return new ReflectiveQueueAccessStrategy(queue, messageQueueNextMethod,
+          messageQueueHeadField);
+    } else {
+      // We haven't seen this version of MessageQueue yet, stick to how we've always done it.
+      return new LegacyQueueAccessStrategy(queue, messageQueueNextMethod, messageQueueHeadField);
+    }
+  }
+
   // Only for use by espresso - keep package private.
   Message getNextMessage() {
     checkThread();
 
-    if (null == interrogatedQueue) {
+    if (null == accessStrategy) {
       initializeQueue();
     }
 
-    try {
-      return (Message) messageQueueNextMethod.invoke(Looper.myQueue());
-    } catch (IllegalAccessException e) {
-      throw propagate(e);
-    } catch (IllegalArgumentException e) {
-      throw propagate(e);
-    } catch (InvocationTargetException e) {
-      throw propagate(e);
-    } catch (SecurityException e) {
-      throw propagate(e);
-    }
+    return accessStrategy.next();
   }
 
   QueueState determineQueueState() {
+    return determineQueueState(SystemClock.uptimeMillis() + LOOKAHEAD_MILLIS);
+  }
+
+  /**
+   * Determines the queue state, considering tasks due before the given uptime to be due soon.
+   */
+  QueueState determineQueueState(long dueSoonBeforeUptimeMillis) {
     // may be called from any thread.
 
-    if (null == interrogatedQueue) {
+    if (null == accessStrategy) {
       initializeQueue();
     }
+    IgnoredMessages ignoredMessages = IdlingPolicies.getIgnoredMessages();
     synchronized (interrogatedQueue) {
-      try {
-        Message head = (Message) messageQueueHeadField.get(interrogatedQueue);
-        if (null == head) {
-          // no messages pending - AT ALL!
-          return QueueState.EMPTY;
-        }
-        if (null == head.getTarget()) {
-          // null target is a sync barrier token.
-          return QueueState.BARRIER;
+      Message head = accessStrategy.peekHead();
+      if (!ignoredMessages.isEmpty()) {
+        head = skipIgnored(head, ignoredMessages);
+      }
+      if (null == head) {
+        // no messages pending - AT ALL! (or only ignored ones)
+        return QueueState.EMPTY;
+      }
+      if (null == head.getTarget()) {
+        // null target is a sync barrier token.
+        return QueueState.BARRIER;
+      } else {
+        if (dueSoonBeforeUptimeMillis > head.getWhen()) {
+          return QueueState.TASK_DUE_SOON;
         } else {
-          long headWhen = head.getWhen();
-          long nowFuz = SystemClock.uptimeMillis() + LOOKAHEAD_MILLIS;
-
-          if (nowFuz > headWhen) {
-            return QueueState.TASK_DUE_SOON;
-          } else {
-            return QueueState.TASK_DUE_LONG;
-          }
+          return QueueState.TASK_DUE_LONG;
         }
-      } catch (IllegalAccessException e) {
-        throw propagate(e);
       }
     }
   }
 
+  /**
+   * Returns the first message in the queue, starting at the given one, which is not ignored.
+   * Caller must hold the queue's monitor.
+   */
+  private static Message skipIgnored(Message message, IgnoredMessages ignoredMessages) {
+    if (null == messageNextField) {
+      return message;
+    }
+    try {
+      while (null != message && ignoredMessages.matches(message)) {
+        message = (Message) messageNextField.get(message);
+      }
+      return message;
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+
   private void initializeQueue() {
+    MessageQueue queue = null;
     if (interrogatedLooper == Looper.myLooper()) {
-      interrogatedQueue = Looper.myQueue();
+      queue = Looper.myQueue();
     } else {
       Handler oneShotHandler = new Handler(interrogatedLooper);
       FutureTask<MessageQueue> queueCapture = new FutureTask<MessageQueue>(
@@ -138,16 +189,19 @@ final class QueueInterrogator {
           });
       oneShotHandler.postAtFrontOfQueue(queueCapture);
       try {
-        interrogatedQueue = queueCapture.get();
+        queue = queueCapture.get();
       } catch (ExecutionException ee) {
         throw propagate(ee.getCause());
       } catch (InterruptedException ie) {
         throw propagate(ie);
       }
     }
+    interrogatedQueue = queue;
+    accessStrategy = accessStrategyFor(queue, Build.VERSION.SDK_INT);
   }
 
   private void checkThread() {
-    checkState(interrogatedLooper == Looper.myLooper(), "Calling from non-owning thread!");
+    // Avoids the thread local lookup of Looper.myLooper(), this is called for every message.
+    checkState(interrogatedThread == Thread.currentThread(), "Calling from non-owning thread!");
   }
 }
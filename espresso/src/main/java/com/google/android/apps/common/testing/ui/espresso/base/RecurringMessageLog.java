@@ -0,0 +1,72 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
+import com.jameswald.skinnylatte.common.collect.Maps;
+
+import android.os.Message;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Counts the messages which were dispatched while the main looper would otherwise have been idle
+ * and logs the ones that kept coming back.
+ *
+ * Those are the messages holding up idle detection - typically recurring delayed work like a
+ * cursor blink or a polling timer - and are candidates for
+ * {@link com.google.android.apps.common.testing.ui.espresso.IdlingPolicies#ignoreMessagesFrom}.
+ *
+ * Only used while recurring message diagnostics are enabled, and only from the main thread.
+ */
+final class RecurringMessageLog {
+  private static final String TAG = "RecurringMessageLog";
+  private static final int MIN_REPORTED_DISPATCHES = 2;
+
+  private final Map<String, Integer> dispatchCounts = Maps.newHashMap();
+
+  /**
+   * Records a message dispatched while waiting only on the queue itself. Must be called before the
+   * message is recycled.
+   */
+  void record(Message message) {
+    String key = describe(message);
+    Integer count = dispatchCounts.get(key);
+    dispatchCounts.put(key, null == count ? 1 : count + 1);
+  }
+
+  /**
+   * Logs the messages recorded at least twice since the last call and forgets all of them.
+   */
+  void logAndReset() {
+    if (dispatchCounts.isEmpty()) {
+      return;
+    }
+    String report = report();
+    if (report.length() > 0) {
+      Log.i(TAG, "Messages dispatched repeatedly while waiting for idle:\n" + report);
+    }
+    dispatchCounts.clear();
+  }
+
+  @VisibleForTesting
+  String report() {
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : dispatchCounts.entrySet()) {
+      if (entry.getValue() >= MIN_REPORTED_DISPATCHES) {
+        report.append("  ")
+            .append(entry.getKey())
+            .append(" dispatched: ")
+            .append(entry.getValue())
+            .append('\n');
+      }
+    }
+    return report.toString();
+  }
+
+  private static String describe(Message message) {
+    if (null != message.getCallback()) {
+      return "runnable: " + message.getCallback().getClass().getName();
+    }
+    return "handler: " + message.getTarget().getClass().getName() + " what: " + message.what;
+  }
+}
@@ -0,0 +1,58 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Throwables.propagate;
+
+import android.os.Message;
+import android.os.MessageQueue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A {@link QueueAccessStrategy} which is bound to a single queue and uses reflective handles that
+ * have been resolved ahead of time. Nothing is looked up or allocated per call - which matters
+ * since every message the main looper runs under espresso goes through {@link #next()}.
+ *
+ * This strategy is used for the API levels the MessageQueue internals have been verified against.
+ */
+final class ReflectiveQueueAccessStrategy implements QueueAccessStrategy {
+
+  // Method.invoke with no arguments would otherwise allocate an empty varargs array each call.
+  private static final Object[] NO_ARGS = new Object[0];
+
+  private final MessageQueue queue;
+  private final Method nextMethod;
+  private final Field headField;
+
+  ReflectiveQueueAccessStrategy(MessageQueue queue, Method nextMethod, Field headField) {
+    this.queue = checkNotNull(queue);
+    this.nextMethod = checkNotNull(nextMethod);
+    this.headField = checkNotNull(headField);
+  }
+
+  @Override
+  public Message next() {
+    try {
+      return (Message) nextMethod.invoke(queue, NO_ARGS);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    } catch (IllegalArgumentException e) {
+      throw propagate(e);
+    } catch (InvocationTargetException e) {
+      throw propagate(e);
+    } catch (SecurityException e) {
+      throw propagate(e);
+    }
+  }
+
+  @Override
+  public Message peekHead() {
+    try {
+      return (Message) headField.get(queue);
+    } catch (IllegalAccessException e) {
+      throw propagate(e);
+    }
+  }
+}
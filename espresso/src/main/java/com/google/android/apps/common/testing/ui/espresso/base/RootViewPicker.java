@@ -15,6 +15,7 @@ import com.jameswald.skinnylatte.common.collect.Lists;
 
 import android.app.Activity;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 
@@ -39,6 +40,9 @@ import javax.inject.Singleton;
 @Singleton
 public final class RootViewPicker implements Provider<View> {
   private static final String TAG = RootViewPicker.class.getSimpleName();
+  private static final long ROOT_READY_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final long ACTIVITY_RESUMED_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(33);
+  private static final long ROOT_RESELECT_INTERVAL_MILLIS = 100;
 
   private final Provider<List<Root>> rootsOracle;
   private final UiController uiController;
@@ -62,37 +66,67 @@ public final class RootViewPicker implements Provider<View> {
     checkState(Looper.getMainLooper().equals(Looper.myLooper()), "must be called on main thread.");
     Matcher<Root> rootMatcher = rootMatcherRef.get();
 
-    Root root = findRoot(rootMatcher);
+    waitForAtLeastOneActivityToBeResumed();
+    RootReadyCondition rootReady = new RootReadyCondition(rootMatcher);
 
     // we only want to propagate a root view that the user can interact with and is not
     // about to relay itself out. An app should be in this state the majority of the time,
-    // if we happen not to be in this state at the moment, process the queue some more
+    // if we happen not to be in this state at the moment, process the queue until we are -
     // we should come to it quickly enough.
-    int loops = 0;
-
-    while (!isReady(root)) {
-      if (loops < 3) {
-        uiController.loopMainThreadUntilIdle();
-      } else if (loops < 1001) {
-
-        // loopUntil idle effectively is polling and pegs the CPU... if we don't have an update to
-        // process immediately, we might have something coming very very soon.
-        uiController.loopMainThreadForAtLeast(10);
-      } else {
-        // we've waited for the root view to be fully laid out and have window focus
-        // for over 10 seconds. something is wrong.
-        throw new RuntimeException(String.format("Waited for the root of the view hierarchy to have"
-            + " window focus and not be requesting layout for over 10 seconds. If you specified a"
-            + " non default root matcher, it may be picking a root that never takes focus."
-            + " Otherwise, something is seriously wrong. Selected Root:\n%s\n. All Roots:\n%s"
-            , root, Joiner.on("\n").join(roots)));
-      }
+    if (!uiController.loopMainThreadUntil(rootReady, ROOT_READY_TIMEOUT_MILLIS)) {
+      // we've waited for the root view to be fully laid out and have window focus
+      // for over 10 seconds. something is wrong.
+      throw new RuntimeException(String.format("Waited for the root of the view hierarchy to have"
+          + " window focus and not be requesting layout for over 10 seconds. If you specified a"
+          + " non default root matcher, it may be picking a root that never takes focus."
+          + " Otherwise, something is seriously wrong. Selected Root:\n%s\n. All Roots:\n%s"
+          , rootReady.root, Joiner.on("\n").join(roots)));
+    }
+
+    return rootReady.root.getDecorView();
+  }
 
-      root = findRoot(rootMatcher);
-      loops++;
+  /**
+   * Checks that the root matching the given matcher is ready. Does not loop the main thread.
+   *
+   * Selecting the root asks the window manager for all roots and runs the matcher on each, so it
+   * is not repeated after every message: the selected root is kept until its window goes away or
+   * a while has passed (a new window may have come up), and is selected again once it is ready -
+   * before reporting the condition met.
+   */
+  private class RootReadyCondition implements UiController.Condition {
+    private final Matcher<Root> rootMatcher;
+    private Root root;
+    private long rootSelectedAtMillis;
+
+    private RootReadyCondition(Matcher<Root> rootMatcher) {
+      this.rootMatcher = rootMatcher;
     }
 
-    return root.getDecorView();
+    @Override
+    public boolean isMet() {
+      boolean freshlySelected = false;
+      if (null == root
+          || null == root.getDecorView().getWindowToken()
+          || SystemClock.uptimeMillis() - rootSelectedAtMillis >= ROOT_RESELECT_INTERVAL_MILLIS) {
+        selectRoot();
+        freshlySelected = true;
+      }
+      if (!isReady(root)) {
+        return false;
+      }
+      if (!freshlySelected) {
+        // windows may have come or gone since the root was selected.
+        selectRoot();
+        return isReady(root);
+      }
+      return true;
+    }
+
+    private void selectRoot() {
+      root = RootViewPicker.this.selectRoot(rootMatcher);
+      rootSelectedAtMillis = SystemClock.uptimeMillis();
+    }
   }
 
   private boolean isReady(Root root) {
@@ -105,9 +139,7 @@ public final class RootViewPicker implements Provider<View> {
     return false;
   }
 
-  private Root findRoot(Matcher<Root> rootMatcher) {
-    waitForAtLeastOneActivityToBeResumed();
-
+  private Root selectRoot(Matcher<Root> rootMatcher) {
     roots = rootsOracle.get();
 
     // TODO(user): move these checks into the RootsOracle.
@@ -165,21 +197,18 @@ public final class RootViewPicker implements Provider<View> {
             + "by calling getActivity() or startActivitySync or similar?");
       }
       // well at least there are some activities in the pipeline - lets see if they resume.
-
-      long[] waitTimes =
-          {10, 50, 100, 500, TimeUnit.SECONDS.toMillis(2), TimeUnit.SECONDS.toMillis(30)};
-
-      for (int waitIdx = 0; waitIdx < waitTimes.length; waitIdx++) {
-        Log.w(TAG, "No activity currently resumed - waiting: " + waitTimes[waitIdx]
-            + "ms for one to appear.");
-        uiController.loopMainThreadForAtLeast(waitTimes[waitIdx]);
-        resumedActivities = activityLifecycleMonitor.getActivitiesInStage(Stage.RESUMED);
-        if (!resumedActivities.isEmpty()) {
-          return; // one of the pending activities has resumed
+      Log.w(TAG, "No activity currently resumed - waiting up to: " + ACTIVITY_RESUMED_TIMEOUT_MILLIS
+          + "ms for one to appear.");
+      boolean activityResumed = uiController.loopMainThreadUntil(new UiController.Condition() {
+        @Override
+        public boolean isMet() {
+          return !activityLifecycleMonitor.getActivitiesInStage(Stage.RESUMED).isEmpty();
         }
+      }, ACTIVITY_RESUMED_TIMEOUT_MILLIS);
+      if (!activityResumed) {
+        throw new NoActivityResumedException("No activities in stage RESUMED. Did you forget to "
+            + "launch the activity. (test.getActivity() or similar)?");
       }
-      throw new NoActivityResumedException("No activities in stage RESUMED. Did you forget to "
-          + "launch the activity. (test.getActivity() or similar)?");
     }
   }
 
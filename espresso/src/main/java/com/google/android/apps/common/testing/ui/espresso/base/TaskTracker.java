@@ -0,0 +1,170 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.jameswald.skinnylatte.common.base.Optional;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts tasks which have been handed to an executor but have not finished running yet, and
+ * notifies callbacks the moment that count drops to zero.
+ *
+ * The count is maintained with lock free counters, so checking for idleness never touches the
+ * executor's internals and never occupies one of its threads. Tasks are counted either by
+ * executing them thru one of the tracker's decorators, or by tracking an existing thread pool
+ * (see {@link #forPool}).
+ */
+public final class TaskTracker {
+  private final AtomicInteger pendingTasks = new AtomicInteger(0);
+  private final List<Runnable> idleTransitionCallbacks = new CopyOnWriteArrayList<Runnable>();
+
+  public TaskTracker() {}
+
+  /**
+   * Returns the tracker counting every task executed by the given pool, installing one if the
+   * pool is not tracked yet.
+   *
+   * Tasks the pool accepted before it was tracked are not counted.
+   *
+   * @return the pool's tracker or absent if the pool cannot be tracked (for example a
+   *     ScheduledThreadPoolExecutor).
+   */
+  public static Optional<TaskTracker> forPool(ThreadPoolExecutor pool) {
+    return CountingTaskQueue.install(pool);
+  }
+
+  /**
+   * Checks if the given pool may run a task on a new thread without queueing it first. The tasks
+   * of such pools cannot all be counted, so {@link #forPool} does not track them.
+   */
+  public static boolean mayHandOffTasks(ThreadPoolExecutor pool) {
+    return CountingTaskQueue.mayHandOffTasks(checkNotNull(pool));
+  }
+
+  /**
+   * Returns an executor which counts every task it passes on to the given executor.
+   */
+  public Executor decorate(final Executor executor) {
+    checkNotNull(executor);
+    return new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        executeTracked(executor, task);
+      }
+    };
+  }
+
+  /**
+   * Returns an executor service which counts every task it passes on to the given service.
+   */
+  public ExecutorService decorate(ExecutorService executorService) {
+    return new CountingExecutorService(checkNotNull(executorService), this);
+  }
+
+  /**
+   * Checks if the tracked tasks have all finished.
+   */
+  public boolean isIdleNow() {
+    return 0 == pendingTasks.get();
+  }
+
+  /**
+   * Adds a callback which is called every time the last tracked task finishes, on the thread that
+   * finished it.
+   */
+  public void addIdleTransitionCallback(Runnable callback) {
+    idleTransitionCallbacks.add(checkNotNull(callback));
+  }
+
+  /**
+   * Removes a callback added by {@link #addIdleTransitionCallback}.
+   */
+  public void removeIdleTransitionCallback(Runnable callback) {
+    idleTransitionCallbacks.remove(callback);
+  }
+
+  /**
+   * Counts the given task as pending and returns a task which must be executed in its place.
+   * Once the returned task has finished, the original task is no longer counted.
+   */
+  Runnable track(Runnable task) {
+    checkNotNull(task);
+    pendingTasks.incrementAndGet();
+    return new TrackedTask(task);
+  }
+
+  /**
+   * Stops counting tasks returned by {@link #track} which will never be run.
+   */
+  void untrack(int taskCount) {
+    checkArgument(taskCount >= 0);
+    if (taskCount > 0) {
+      onTasksDone(taskCount);
+    }
+  }
+
+  /**
+   * Hands a tracked version of the task to the executor, untracking it again if it is rejected.
+   */
+  void executeTracked(Executor executor, Runnable task) {
+    Runnable tracked = track(task);
+    boolean handedOff = false;
+    try {
+      executor.execute(tracked);
+      handedOff = true;
+    } finally {
+      if (!handedOff) {
+        untrack(1);
+      }
+    }
+  }
+
+  /**
+   * Checks if the given task was returned by {@link #track}.
+   */
+  static boolean isTracked(Object task) {
+    return task instanceof TrackedTask;
+  }
+
+  /**
+   * Returns the task a tracked task was created for, or the argument itself if it is not tracked.
+   */
+  static Object unwrap(Object maybeTracked) {
+    if (isTracked(maybeTracked)) {
+      return ((TrackedTask) maybeTracked).task;
+    }
+    return maybeTracked;
+  }
+
+  private void onTasksDone(int taskCount) {
+    if (0 == pendingTasks.addAndGet(-taskCount)) {
+      for (Runnable callback : idleTransitionCallbacks) {
+        callback.run();
+      }
+    }
+  }
+
+  private final class TrackedTask implements Runnable {
+    private final Runnable task;
+
+    private TrackedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        task.run();
+      } finally {
+        onTasksDone(1);
+      }
+    }
+  }
+}
@@ -26,14 +26,11 @@ import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
-import java.util.BitSet;
-import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -46,15 +43,15 @@ final class UiControllerImpl implements UiController, Handler.Callback {
 
   private static final String TAG = UiControllerImpl.class.getSimpleName();
 
-  private static final Callable<Void> NO_OP = new Callable<Void>() {
-    @Override
-    public Void call() {
-      return null;
-    }
-  };
+  private static final IdleCondition[] ALL_CONDITIONS = IdleCondition.values();
+  private static final int DISARMED = -1;
+  private static final long NO_FRAME_AWAITED = Long.MIN_VALUE;
+  private static final int KEY_INJECTION_ATTEMPTS = 2;
 
   /**
    * Responsible for signaling a particular condition is met / verifying that signal.
+   *
+   * Conditions are tracked in an int mask, one bit per condition.
    */
   enum IdleCondition {
       DELAY_HAS_PAST,
@@ -64,18 +61,20 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       MOTION_INJECTION_HAS_COMPLETED,
       DYNAMIC_TASKS_HAVE_IDLED;
 
+      private final int mask = 1 << ordinal();
+
       /**
-       * Checks whether this condition has been signaled.
+       * The bit of this condition within a condition mask.
        */
-      public boolean isSignaled(BitSet conditionSet) {
-        return conditionSet.get(ordinal());
+      public int mask() {
+        return mask;
       }
 
       /**
-       * Resets the signal state for this condition.
+       * Checks whether this condition has been signaled.
        */
-      public void reset(BitSet conditionSet) {
-        conditionSet.set(ordinal(), false);
+      public boolean isSignaled(int conditionMask) {
+        return (conditionMask & mask) != 0;
       }
 
       /**
@@ -86,52 +85,42 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       }
 
       /**
-       * Handles a message that is raising a signal and updates the condition set accordingly.
-       * Messages from a previous generation will be ignored.
+       * Returns the condition whose signal the given message raises, or null if the message is not
+       * a signal.
        */
-      public static boolean handleMessage(Message message, BitSet conditionSet,
-          int currentGeneration) {
-        IdleCondition [] allConditions = values();
-        if (message.what < 0 || message.what >= allConditions.length) {
-          return false;
-        } else {
-          IdleCondition condition = allConditions[message.what];
-          if (message.arg1 == currentGeneration) {
-            condition.signal(conditionSet);
-          } else {
-            Log.w(TAG, "ignoring signal of: " + condition + " from previous generation: " +
-                message.arg1 + " current generation: " + currentGeneration);
-          }
-          return true;
+      public static IdleCondition fromSignal(Message message) {
+        if (message.what < 0 || message.what >= ALL_CONDITIONS.length) {
+          return null;
         }
-      }
-
-      public static BitSet createConditionSet() {
-        return new BitSet(values().length);
-      }
-
-      /**
-       * Requests that the given bitset be updated to indicate that this condition has been
-       * signaled.
-       */
-      protected void signal(BitSet conditionSet) {
-        conditionSet.set(ordinal());
+        return ALL_CONDITIONS[message.what];
       }
   }
 
   private final EventInjector eventInjector;
-  private final BitSet conditionSet;
   private final AsyncTaskPoolMonitor asyncTaskMonitor;
   private final Optional<AsyncTaskPoolMonitor> compatTaskMonitor;
   private final IdlingResourceRegistry idlingResourceRegistry;
+  private final DispatchTrace dispatchTrace;
+  private final DispatchProfiler dispatchProfiler;
+  private final IdleWaitMetrics idleWaitMetrics;
   private final ExecutorService keyEventExecutor = Executors.newSingleThreadExecutor();
   private final QueueInterrogator queueInterrogator;
+  private final RecurringMessageLog recurringMessageLog = new RecurringMessageLog();
   private final Looper mainLooper;
+  // signals are reused once they've fired, indexed by condition ordinal.
+  private final ConditionSignal[] signals = new ConditionSignal[ALL_CONDITIONS.length];
+  private final DynamicIdleCallback dynamicIdleCallback = new DynamicIdleCallback();
 
   private Handler controllerHandler;
+  private Optional<FrameClock> frameClock;
+  // last frame time seen when a pending frame was first noticed, NO_FRAME_AWAITED if none was.
+  private long awaitedFrameAfterNanos = NO_FRAME_AWAITED;
   // only updated on main thread.
   private boolean looping = false;
   private int generation = 0;
+  private int signaledConditions = 0;
+  private KeyCharacterMap keyCharacterMap;
+  private long loopStartMillis;
 
   @VisibleForTesting
   @Inject
@@ -139,12 +128,17 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       @SdkAsyncTask AsyncTaskPoolMonitor asyncTaskMonitor,
       @CompatAsyncTask Optional<AsyncTaskPoolMonitor> compatTaskMonitor,
       IdlingResourceRegistry registry,
+      DispatchTrace dispatchTrace,
+      DispatchProfiler dispatchProfiler,
+      IdleWaitMetrics idleWaitMetrics,
       Looper mainLooper) {
     this.eventInjector = checkNotNull(eventInjector);
     this.asyncTaskMonitor = checkNotNull(asyncTaskMonitor);
     this.compatTaskMonitor = checkNotNull(compatTaskMonitor);
-    this.conditionSet = IdleCondition.createConditionSet();
     this.idlingResourceRegistry = checkNotNull(registry);
+    this.dispatchTrace = checkNotNull(dispatchTrace);
+    this.dispatchProfiler = checkNotNull(dispatchProfiler);
+    this.idleWaitMetrics = checkNotNull(idleWaitMetrics);
     this.mainLooper = checkNotNull(mainLooper);
     this.queueInterrogator = new QueueInterrogator(mainLooper);
   }
@@ -157,34 +151,24 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     initialize();
     loopMainThreadUntilIdle();
 
-    FutureTask<Boolean> injectTask = new SignalingTask<Boolean>(
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
-            return eventInjector.injectKeyEvent(event);
-          }
-        },
-        IdleCondition.KEY_INJECT_HAS_COMPLETED,
-        generation);
+    InjectionTask injectTask =
+        (InjectionTask) armSignal(IdleCondition.KEY_INJECT_HAS_COMPLETED);
+    injectTask.keyEvent = event;
 
     // Inject the key event.
-    keyEventExecutor.submit(injectTask);
+    keyEventExecutor.execute(injectTask);
 
     loopUntil(IdleCondition.KEY_INJECT_HAS_COMPLETED);
 
     try {
-      checkState(injectTask.isDone(), "Key injection was signaled - but it wasnt done.");
-      return injectTask.get();
+      checkState(!injectTask.isArmed(), "Key injection was signaled - but it wasnt done.");
+      return injectTask.takeResult();
     } catch (ExecutionException ee) {
       if (ee.getCause() instanceof InjectEventSecurityException) {
         throw (InjectEventSecurityException) ee.getCause();
       } else {
-        throw new RuntimeException(ee.getCause());
+        throw propagate(ee.getCause() != null ? ee.getCause() : ee);
       }
-    } catch (InterruptedException neverHappens) {
-      // we only call get() after done() is signaled.
-      // we should never block.
-      throw new RuntimeException("impossible.", neverHappens);
     }
   }
 
@@ -194,30 +178,50 @@ final class UiControllerImpl implements UiController, Handler.Callback {
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
     initialize();
 
-    FutureTask<Boolean> injectTask = new SignalingTask<Boolean>(
-        new Callable<Boolean>() {
-          @Override
-          public Boolean call() throws Exception {
-            return eventInjector.injectMotionEvent(event);
-          }
-        },
-        IdleCondition.MOTION_INJECTION_HAS_COMPLETED,
-        generation);
-    keyEventExecutor.submit(injectTask);
+    InjectionTask injectTask =
+        (InjectionTask) armSignal(IdleCondition.MOTION_INJECTION_HAS_COMPLETED);
+    injectTask.motionEvent = event;
+    keyEventExecutor.execute(injectTask);
     loopUntil(IdleCondition.MOTION_INJECTION_HAS_COMPLETED);
     try {
-      checkState(injectTask.isDone(), "Key injection was signaled - but it wasnt done.");
-      return injectTask.get();
+      checkState(!injectTask.isArmed(), "Key injection was signaled - but it wasnt done.");
+      return injectTask.takeResult();
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof InjectEventSecurityException) {
+        throw (InjectEventSecurityException) ee.getCause();
+      } else {
+        throw propagate(ee.getCause() != null ? ee.getCause() : ee);
+      }
+    } finally {
+      loopMainThreadUntilIdle();
+    }
+  }
+
+  @Override
+  public boolean injectMotionEventSequence(List<MotionEvent> events)
+      throws InjectEventSecurityException {
+    checkNotNull(events);
+    checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
+    initialize();
+    if (events.isEmpty()) {
+      return true;
+    }
+
+    InjectionTask injectTask =
+        (InjectionTask) armSignal(IdleCondition.MOTION_INJECTION_HAS_COMPLETED);
+    injectTask.motionEvents = events;
+    keyEventExecutor.execute(injectTask);
+    // the app handles each event as it is injected, well before the whole gesture is done.
+    loopUntil(IdleCondition.MOTION_INJECTION_HAS_COMPLETED);
+    try {
+      checkState(!injectTask.isArmed(), "Gesture injection was signaled - but it wasnt done.");
+      return injectTask.takeResult();
     } catch (ExecutionException ee) {
       if (ee.getCause() instanceof InjectEventSecurityException) {
         throw (InjectEventSecurityException) ee.getCause();
       } else {
         throw propagate(ee.getCause() != null ? ee.getCause() : ee);
       }
-    } catch (InterruptedException neverHappens) {
-      // we only call get() after done() is signaled.
-      // we should never block.
-      throw propagate(neverHappens);
     } finally {
       loopMainThreadUntilIdle();
     }
@@ -235,41 +239,49 @@ final class UiControllerImpl implements UiController, Handler.Callback {
       return true;
     }
 
-    boolean eventInjected = false;
-    KeyCharacterMap keyCharacterMap = getKeyCharacterMap();
+    if (null == keyCharacterMap) {
+      keyCharacterMap = getKeyCharacterMap();
+    }
 
     // TODO(user): Investigate why not use (as suggested in javadoc of keyCharacterMap.getEvents):
     // http://developer.android.com/reference/android/view/KeyEvent.html#KeyEvent(long,
     // java.lang.String, int, int)
     KeyEvent[] events = keyCharacterMap.getEvents(str.toCharArray());
-    checkNotNull(events, "Failed to get events for string " + str);
+    checkNotNull(events, "Failed to get events for string %s", str);
+    for (int i = 0; i < events.length; i++) {
+      checkNotNull(events[i], "Failed to get event %s for string %s", i, str);
+    }
     Log.d(TAG, String.format("Injecting string: \"%s\"", str));
 
-    for (KeyEvent event : events) {
-      checkNotNull(event, String.format("Failed to get event for character (%c) with key code (%s)",
-          event.getKeyCode(), event.getUnicodeChar()));
-
-      eventInjected = false;
-      for (int attempts = 0; !eventInjected && attempts < 4; attempts++) {
-        attempts++;
-
-        // We have to change the time of an event before injecting it because
-        // all KeyEvents returned by KeyCharacterMap.getEvents() have the same
-        // time stamp and the system rejects too old events. Hence, it is
-        // possible for an event to become stale before it is injected if it
-        // takes too long to inject the preceding ones.
-        event = KeyEvent.changeTimeRepeat(event, SystemClock.uptimeMillis(), 0);
-        eventInjected = injectKeyEvent(event);
-      }
+    // the events are injected back to back, with a single idle sync before and after them.
+    loopMainThreadUntilIdle();
+    InjectionTask injectTask =
+        (InjectionTask) armSignal(IdleCondition.KEY_INJECT_HAS_COMPLETED);
+    injectTask.keyEvents = events;
+    keyEventExecutor.execute(injectTask);
+    loopUntil(IdleCondition.KEY_INJECT_HAS_COMPLETED);
 
-      if (!eventInjected) {
-        Log.e(TAG, String.format("Failed to inject event for character (%c) with key code (%s)",
-            event.getUnicodeChar(), event.getKeyCode()));
-        break;
+    int failedEvent = injectTask.failedEvent;
+    boolean eventsInjected;
+    try {
+      checkState(!injectTask.isArmed(), "Key injection was signaled - but it wasnt done.");
+      eventsInjected = injectTask.takeResult();
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof InjectEventSecurityException) {
+        throw (InjectEventSecurityException) ee.getCause();
+      } else {
+        throw propagate(ee.getCause() != null ? ee.getCause() : ee);
       }
+    } finally {
+      loopMainThreadUntilIdle();
     }
 
-    return eventInjected;
+    if (!eventsInjected) {
+      KeyEvent event = events[failedEvent];
+      Log.e(TAG, String.format("Failed to inject event %s of %s for character (%c) with key code "
+          + "(%s)", failedEvent + 1, events.length, event.getUnicodeChar(), event.getKeyCode()));
+    }
+    return eventsInjected;
   }
 
   @SuppressLint("InlinedApi")
@@ -293,44 +305,27 @@ final class UiControllerImpl implements UiController, Handler.Callback {
   public void loopMainThreadUntilIdle() {
     initialize();
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
+    if (isIdleNow()) {
+      // e.g. an assertion following another one - skip the loop and its bookkeeping.
+      return;
+    }
     do {
-      EnumSet<IdleCondition> condChecks = EnumSet.noneOf(IdleCondition.class);
+      int condChecks = 0;
       if (!asyncTaskMonitor.isIdleNow()) {
-        asyncTaskMonitor.notifyWhenIdle(new SignalingTask<Void>(NO_OP,
-            IdleCondition.ASYNC_TASKS_HAVE_IDLED, generation));
+        asyncTaskMonitor.notifyWhenIdle(armSignal(IdleCondition.ASYNC_TASKS_HAVE_IDLED));
 
-        condChecks.add(IdleCondition.ASYNC_TASKS_HAVE_IDLED);
+        condChecks |= IdleCondition.ASYNC_TASKS_HAVE_IDLED.mask();
       }
 
       if (!compatIdle()) {
-        compatTaskMonitor.get().notifyWhenIdle(new SignalingTask<Void>(NO_OP,
-            IdleCondition.COMPAT_TASKS_HAVE_IDLED, generation));
-        condChecks.add(IdleCondition.COMPAT_TASKS_HAVE_IDLED);
+        compatTaskMonitor.get().notifyWhenIdle(armSignal(IdleCondition.COMPAT_TASKS_HAVE_IDLED));
+        condChecks |= IdleCondition.COMPAT_TASKS_HAVE_IDLED.mask();
       }
 
       if (!idlingResourceRegistry.allResourcesAreIdle()) {
-        final IdlingPolicy warning = IdlingPolicies.getDynamicIdlingResourceWarningPolicy();
-        final IdlingPolicy error = IdlingPolicies.getDynamicIdlingResourceErrorPolicy();
-        final SignalingTask<Void> idleSignal = new SignalingTask<Void>(NO_OP,
-            IdleCondition.DYNAMIC_TASKS_HAVE_IDLED, generation);
-        idlingResourceRegistry.notifyWhenAllResourcesAreIdle(new IdleNotificationCallback() {
-          @Override
-          public void resourcesStillBusyWarning(List<String> busyResourceNames) {
-            warning.handleTimeout(busyResourceNames, "IdlingResources are still busy!");
-          }
-
-          @Override
-          public void resourcesHaveTimedOut(List<String> busyResourceNames) {
-            error.handleTimeout(busyResourceNames, "IdlingResources have timed out!");
-            controllerHandler.post(idleSignal);
-          }
-
-          @Override
-          public void allResourcesIdle() {
-            controllerHandler.post(idleSignal);
-          }
-        });
-        condChecks.add(IdleCondition.DYNAMIC_TASKS_HAVE_IDLED);
+        dynamicIdleCallback.idleSignal = armSignal(IdleCondition.DYNAMIC_TASKS_HAVE_IDLED);
+        idlingResourceRegistry.notifyWhenAllResourcesAreIdle(dynamicIdleCallback);
+        condChecks |= IdleCondition.DYNAMIC_TASKS_HAVE_IDLED.mask();
       }
 
       try {
@@ -347,6 +342,15 @@ final class UiControllerImpl implements UiController, Handler.Callback {
 
   }
 
+  /**
+   * Checks, without looping, whether there is nothing to wait for right now. The main queue is
+   * only peeked at, and idling resources are polled most likely busy first.
+   */
+  private boolean isIdleNow() {
+    return isMainQueueIdle() && asyncTaskMonitor.isIdleNow() && compatIdle()
+        && idlingResourceRegistry.allResourcesAreIdle();
+  }
+
   private boolean compatIdle() {
     if (compatTaskMonitor.isPresent()) {
       return compatTaskMonitor.get().isIdleNow();
@@ -359,28 +363,65 @@ final class UiControllerImpl implements UiController, Handler.Callback {
   public void loopMainThreadForAtLeast(long millisDelay) {
     initialize();
     checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
-    checkState(!IdleCondition.DELAY_HAS_PAST.isSignaled(conditionSet), "recursion detected!");
+    checkState(!IdleCondition.DELAY_HAS_PAST.isSignaled(signaledConditions),
+        "recursion detected!");
 
     checkArgument(millisDelay > 0);
-    controllerHandler.postDelayed(new SignalingTask(NO_OP, IdleCondition.DELAY_HAS_PAST,
-          generation),
-        millisDelay);
+    controllerHandler.postDelayed(armSignal(IdleCondition.DELAY_HAS_PAST), millisDelay);
     loopUntil(IdleCondition.DELAY_HAS_PAST);
     loopMainThreadUntilIdle();
   }
 
+  @Override
+  public boolean loopMainThreadUntil(Condition condition, long timeoutMillis) {
+    initialize();
+    checkState(Looper.myLooper() == mainLooper, "Expecting to be on main thread!");
+    checkState(!IdleCondition.DELAY_HAS_PAST.isSignaled(signaledConditions),
+        "recursion detected!");
+    checkNotNull(condition);
+    checkArgument(timeoutMillis > 0);
+
+    if (condition.isMet()) {
+      return true;
+    }
+    ConditionSignal timeoutSignal = armSignal(IdleCondition.DELAY_HAS_PAST);
+    controllerHandler.postDelayed(timeoutSignal, timeoutMillis);
+    try {
+      loopUntil(IdleCondition.DELAY_HAS_PAST.mask(), Optional.of(condition));
+    } finally {
+      // a no-op if we timed out.
+      controllerHandler.removeCallbacks(timeoutSignal);
+      timeoutSignal.disarm();
+    }
+    return condition.isMet();
+  }
+
   @Override
   public boolean handleMessage(Message msg) {
-    if (!IdleCondition.handleMessage(msg, conditionSet, generation)) {
+    IdleCondition condition = IdleCondition.fromSignal(msg);
+    if (null == condition) {
       Log.i(TAG, "Unknown message type: " + msg);
       return false;
+    } else if (msg.arg1 == generation) {
+      signaledConditions |= condition.mask();
+      if (looping) {
+        idleWaitMetrics.recordConditionWait(condition.name(),
+            SystemClock.uptimeMillis() - loopStartMillis);
+      }
+      return true;
     } else {
+      Log.w(TAG, "ignoring signal of: " + condition + " from previous generation: " +
+          msg.arg1 + " current generation: " + generation);
       return true;
     }
   }
 
   private void loopUntil(IdleCondition condition) {
-    loopUntil(EnumSet.of(condition));
+    loopUntil(condition.mask());
+  }
+
+  private void loopUntil(int conditions) {
+    loopUntil(conditions, Optional.<Condition>absent());
   }
 
   /**
@@ -389,131 +430,336 @@ final class UiControllerImpl implements UiController, Handler.Callback {
    * Once they've been signaled, the conditions are reset and the generation value
    * is incremented.
    *
-   * Signals should only be raised thru SignalingTask instances, and care should be
-   * taken to ensure that the signaling task is created before loopUntil is called.
+   * Signals should only be raised thru ConditionSignal instances, and care should be
+   * taken to ensure that the signal is armed before loopUntil is called.
    *
    * Good:
-   * idlingType.runOnIdle(new SignalingTask(NO_OP, IdleCondition.MY_IDLE_CONDITION, generation));
+   * idlingType.runOnIdle(armSignal(IdleCondition.MY_IDLE_CONDITION));
    * loopUntil(IdleCondition.MY_IDLE_CONDITION);
    *
    * Bad:
    * idlingType.runOnIdle(new CustomCallback() {
    *   @Override
    *   public void itsDone() {
-   *     // oh no - The creation of this signaling task is delayed until this method is
-   *     // called, so it will not have the right value for generation.
-   *     new SignalingTask(NO_OP, IdleCondition.MY_IDLE_CONDITION, generation).run();
+   *     // oh no - The signal is armed when this method is called, so it will
+   *     // not have the right value for generation.
+   *     armSignal(IdleCondition.MY_IDLE_CONDITION).run();
    *  }
    * })
    * loopUntil(IdleCondition.MY_IDLE_CONDITION);
+   *
+   * If a stop condition is given, looping also ends as soon as it is met after a dispatched
+   * message.
    */
-  private void loopUntil(EnumSet<IdleCondition> conditions) {
+  private void loopUntil(int conditions, Optional<Condition> stopCondition) {
     checkState(!looping, "Recursive looping detected!");
     looping = true;
     IdlingPolicy masterIdlePolicy = IdlingPolicies.getMasterIdlingPolicy();
+    boolean logRecurringMessages = IdlingPolicies.isRecurringMessageDiagnosticsEnabled();
     try {
       int loopCount = 0;
       long start = SystemClock.uptimeMillis();
+      loopStartMillis = start;
+      long conditionsMetAt = -1;
       long end = start + masterIdlePolicy.getIdleTimeoutUnit().toMillis(
           masterIdlePolicy.getIdleTimeout());
       while (SystemClock.uptimeMillis() < end) {
         boolean conditionsMet = true;
         boolean shouldLogConditionState = loopCount > 0 && loopCount % 100 == 0;
 
-        for (IdleCondition condition : conditions) {
-          if (!condition.isSignaled(conditionSet)) {
-            conditionsMet = false;
-            if (shouldLogConditionState) {
-              Log.w(TAG, "Waiting for: " + condition.name() + " for " + loopCount + " iterations.");
-            } else {
-              break;
+        int unsignaled = conditions & ~signaledConditions;
+        if (unsignaled != 0) {
+          conditionsMet = false;
+          if (shouldLogConditionState) {
+            for (IdleCondition condition : ALL_CONDITIONS) {
+              if (condition.isSignaled(unsignaled)) {
+                Log.w(TAG, "Waiting for: " + condition.name() + " for " + loopCount
+                    + " iterations.");
+              }
             }
           }
         }
 
+        boolean waitingOnQueueOnly = false;
         if (conditionsMet) {
-          QueueState queueState = queueInterrogator.determineQueueState();
-          if (queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG) {
+          if (conditionsMetAt < 0) {
+            conditionsMetAt = SystemClock.uptimeMillis();
+          }
+          if (isMainQueueIdle()) {
+            idleWaitMetrics.recordConditionWait(IdleWaitMetrics.MAIN_QUEUE,
+                SystemClock.uptimeMillis() - conditionsMetAt);
             return;
           } else {
+            waitingOnQueueOnly = true;
             Log.v(
                 "ESP_TRACE",
 
-                "Barrier detected or task avaliable for running shortly.");
+                "Frame pending, barrier detected or task avaliable for running shortly.");
           }
         }
 
         Message message = queueInterrogator.getNextMessage();
-        String callbackString = "unknown";
-        String messageString = "unknown";
+        long dispatchStart = System.nanoTime();
         try {
-          if (null == message.getCallback()) {
-            callbackString = "no callback.";
-          } else {
-            callbackString = message.getCallback().toString();
+          message.getTarget().dispatchMessage(message);
+        } finally {
+          long dispatchNanos = System.nanoTime() - dispatchStart;
+          dispatchTrace.record(message, dispatchNanos);
+          dispatchProfiler.record(message, dispatchNanos);
+          if (logRecurringMessages && waitingOnQueueOnly && null != message.getTarget()) {
+            recurringMessageLog.record(message);
           }
-          messageString = message.toString();
-        } catch (NullPointerException e) {
-          /*
-           * Ignore. android.app.ActivityThread$ActivityClientRecord#toString() fails for API level
-           * 15.
-           */
         }
-
-        Log.v(
-            "ESP_TRACE",
-            String.format("%s: MessageQueue.next(): %s, with target: %s, callback: %s", TAG,
-              messageString, message.getTarget().getClass().getCanonicalName(), callbackString));
-        message.getTarget().dispatchMessage(message);
         message.recycle();
         loopCount++;
+        if (stopCondition.isPresent() && stopCondition.get().isMet()) {
+          return;
+        }
       }
       List<String> idleConditions = Lists.newArrayList();
-      for (IdleCondition condition : conditions) {
-        if (!condition.isSignaled(conditionSet)) {
+      for (IdleCondition condition : ALL_CONDITIONS) {
+        if (condition.isSignaled(conditions) && !condition.isSignaled(signaledConditions)) {
           idleConditions.add(condition.name());
         }
       }
       masterIdlePolicy.handleTimeout(idleConditions, String.format(
           "Looped for %s iterations over %s %s.", loopCount, masterIdlePolicy.getIdleTimeout(),
           masterIdlePolicy.getIdleTimeoutUnit().name()));
+      logDispatchTrace();
     } finally {
+      idleWaitMetrics.recordLoop(SystemClock.uptimeMillis() - loopStartMillis);
+      if (logRecurringMessages) {
+        recurringMessageLog.logAndReset();
+      }
       looping = false;
+      awaitedFrameAfterNanos = NO_FRAME_AWAITED;
       generation++;
-      for (IdleCondition condition : conditions) {
-        condition.reset(conditionSet);
-      }
+      signaledConditions &= ~conditions;
     }
   }
 
 
+  // only reached when the idle policy did not throw - thrown timeouts have the trace logged by the
+  // failure handler.
+  private void logDispatchTrace() {
+    Log.w(TAG, "Idle timed out. " + dispatchTrace.dump());
+  }
+
+  /**
+   * Checks if the main queue has nothing to do before the next frame.
+   *
+   * Where the Choreographer can be inspected, a frame which was scheduled when the idle check
+   * began keeps the queue busy until it has been drawn, and tasks count as due soon if they would
+   * run before the next vsync. Frames scheduled after that one are not waited for - an endless
+   * animation schedules one every vsync. Otherwise tasks due within a fixed lookahead window count
+   * as due soon.
+   */
+  private boolean isMainQueueIdle() {
+    QueueState queueState;
+    if (frameClock.isPresent()) {
+      FrameClock clock = frameClock.get();
+      if (clock.isFramePending()) {
+        long lastFrameTimeNanos = clock.lastFrameTimeNanos();
+        if (NO_FRAME_AWAITED == awaitedFrameAfterNanos) {
+          awaitedFrameAfterNanos = lastFrameTimeNanos;
+          return false;
+        } else if (lastFrameTimeNanos == awaitedFrameAfterNanos) {
+          // the awaited frame has not been drawn yet.
+          return false;
+        }
+      }
+      queueState = queueInterrogator.determineQueueState(clock.nextFrameUptimeMillis());
+    } else {
+      queueState = queueInterrogator.determineQueueState();
+    }
+    return queueState == QueueState.EMPTY || queueState == QueueState.TASK_DUE_LONG;
+  }
+
   private void initialize() {
     if (controllerHandler == null) {
       controllerHandler = new Handler(this);
+      frameClock = FrameClock.forCurrentThread();
     }
   }
 
 
   /**
-   * Encapsulates posting a signal message to update the conditions set after a task has
-   * executed.
+   * Returns the signal of the given condition, armed for the current generation.
+   *
+   * A signal which has fired is reused. One which is still armed may yet fire for its own
+   * generation, so it is replaced.
+   */
+  private ConditionSignal armSignal(IdleCondition condition) {
+    ConditionSignal signal = signals[condition.ordinal()];
+    if (null == signal || !signal.arm(generation)) {
+      if (condition == IdleCondition.KEY_INJECT_HAS_COMPLETED
+          || condition == IdleCondition.MOTION_INJECTION_HAS_COMPLETED) {
+        signal = new InjectionTask(condition);
+      } else {
+        signal = new ConditionSignal(condition);
+      }
+      signal.arm(generation);
+      signals[condition.ordinal()] = signal;
+    }
+    return signal;
+  }
+
+  /**
+   * Encapsulates posting a signal message to update the conditions set when run, for the
+   * generation the signal was armed with.
    */
-  private class SignalingTask<T> extends FutureTask<T> {
+  private class ConditionSignal implements Runnable {
 
     private final IdleCondition condition;
-    private final int myGeneration;
+    private final AtomicInteger armedGeneration = new AtomicInteger(DISARMED);
 
-    public SignalingTask(Callable<T> callable, IdleCondition condition, int myGeneration) {
-      super(callable);
+    ConditionSignal(IdleCondition condition) {
       this.condition = checkNotNull(condition);
-      this.myGeneration = myGeneration;
+    }
+
+    final boolean arm(int myGeneration) {
+      return armedGeneration.compareAndSet(DISARMED, myGeneration);
+    }
+
+    /**
+     * Disarms a signal which is known not to run anymore, so it can be reused.
+     */
+    final void disarm() {
+      armedGeneration.set(DISARMED);
+    }
+
+    final boolean isArmed() {
+      return armedGeneration.get() != DISARMED;
     }
 
     @Override
-    protected void done() {
-      controllerHandler.sendMessage(condition.createSignal(controllerHandler, myGeneration));
+    public void run() {
+      signal();
     }
 
+    final void signal() {
+      int myGeneration = armedGeneration.getAndSet(DISARMED);
+      if (myGeneration != DISARMED) {
+        controllerHandler.sendMessage(condition.createSignal(controllerHandler, myGeneration));
+      }
+    }
+  }
+
+  /**
+   * Injects one event, or a sequence of motion events, on the key event executor, then signals its
+   * condition.
+   */
+  private class InjectionTask extends ConditionSignal {
+    // written by main before execution, cleared by main after the signal.
+    private KeyEvent keyEvent;
+    private KeyEvent[] keyEvents;
+    private MotionEvent motionEvent;
+    private List<MotionEvent> motionEvents;
+    // written by the executor before the signal is sent.
+    private boolean injected;
+    private int failedEvent = -1;
+    private Throwable failure;
+
+    InjectionTask(IdleCondition condition) {
+      super(condition);
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (null != keyEvent) {
+          injected = eventInjector.injectKeyEvent(keyEvent);
+        } else if (null != keyEvents) {
+          injected = injectKeys();
+        } else if (null != motionEvents) {
+          injected = injectSequence();
+        } else {
+          injected = eventInjector.injectMotionEvent(motionEvent);
+        }
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        signal();
+      }
+    }
+
+    private boolean injectKeys() throws InjectEventSecurityException {
+      for (int i = 0; i < keyEvents.length; i++) {
+        boolean eventInjected = false;
+        for (int attempt = 0; !eventInjected && attempt < KEY_INJECTION_ATTEMPTS; attempt++) {
+          // We have to change the time of an event before injecting it because
+          // all KeyEvents returned by KeyCharacterMap.getEvents() have the same
+          // time stamp and the system rejects too old events. Hence, it is
+          // possible for an event to become stale before it is injected if it
+          // takes too long to inject the preceding ones.
+          eventInjected = eventInjector.injectKeyEvent(
+              KeyEvent.changeTimeRepeat(keyEvents[i], SystemClock.uptimeMillis(), 0));
+        }
+        if (!eventInjected) {
+          failedEvent = i;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean injectSequence() throws InjectEventSecurityException {
+      for (int i = 0; i < motionEvents.size(); i++) {
+        MotionEvent event = motionEvents.get(i);
+        long untilDue = event.getEventTime() - SystemClock.uptimeMillis();
+        if (untilDue > 0) {
+          SystemClock.sleep(untilDue);
+        }
+        if (!eventInjector.injectMotionEvent(event)) {
+          Log.w(TAG, "Injection of event " + i + " of " + motionEvents.size() + " failed.");
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns whether the event was injected and readies this task for the next event.
+     */
+    boolean takeResult() throws ExecutionException {
+      Throwable myFailure = failure;
+      boolean myResult = injected;
+      keyEvent = null;
+      keyEvents = null;
+      motionEvent = null;
+      motionEvents = null;
+      injected = false;
+      failedEvent = -1;
+      failure = null;
+      if (null != myFailure) {
+        throw new ExecutionException(myFailure);
+      }
+      return myResult;
+    }
+  }
+
+  private class DynamicIdleCallback implements IdleNotificationCallback {
+    // only touched on main thread.
+    private ConditionSignal idleSignal;
+
+    @Override
+    public void resourcesStillBusyWarning(List<String> busyResourceNames) {
+      IdlingPolicies.getDynamicIdlingResourceWarningPolicy()
+          .handleTimeout(busyResourceNames, "IdlingResources are still busy!");
+    }
+
+    @Override
+    public void resourcesHaveTimedOut(List<String> busyResourceNames) {
+      IdlingPolicies.getDynamicIdlingResourceErrorPolicy().handleTimeout(busyResourceNames,
+          "IdlingResources have timed out!");
+      logDispatchTrace();
+      idleSignal.run();
+    }
+
+    @Override
+    public void allResourcesIdle() {
+      idleSignal.run();
+    }
   }
 
 }
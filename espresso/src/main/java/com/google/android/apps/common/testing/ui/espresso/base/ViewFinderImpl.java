@@ -7,11 +7,10 @@ import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
 import com.google.android.apps.common.testing.ui.espresso.AmbiguousViewMatcherException;
 import com.google.android.apps.common.testing.ui.espresso.NoMatchingViewException;
 import com.google.android.apps.common.testing.ui.espresso.ViewFinder;
-import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers;
+import com.google.android.apps.common.testing.ui.espresso.matcher.PinnedViewProperties;
 import com.jameswald.skinnylatte.common.base.Joiner;
 import com.jameswald.skinnylatte.common.base.Optional;
 import com.jameswald.skinnylatte.common.base.Predicate;
-import com.jameswald.skinnylatte.common.collect.Iterables;
 import com.jameswald.skinnylatte.common.collect.Iterators;
 import com.jameswald.skinnylatte.common.collect.Lists;
 
@@ -36,46 +35,68 @@ public final class ViewFinderImpl implements ViewFinder {
 
   private final Matcher<View> viewMatcher;
   private final Provider<View> rootViewProvider;
+  private final ViewHierarchyIndex hierarchyIndex;
 
   @Inject
-  ViewFinderImpl(Matcher<View> viewMatcher, Provider<View> rootViewProvider) {
+  ViewFinderImpl(Matcher<View> viewMatcher, Provider<View> rootViewProvider,
+      ViewHierarchyIndex hierarchyIndex) {
     this.viewMatcher = viewMatcher;
     this.rootViewProvider = rootViewProvider;
+    this.hierarchyIndex = checkNotNull(hierarchyIndex);
   }
 
   @Override
   public View getView() throws AmbiguousViewMatcherException, NoMatchingViewException {
     checkMainThread();
-    final Predicate<View> matcherPredicate = new MatcherPredicateAdapter<View>(
-        checkNotNull(viewMatcher));
+    // when the matcher pins an id, only views with that id are worth running it against.
+    final Predicate<View> matcherPredicate = new ViewMatcherPredicate(
+        checkNotNull(viewMatcher), PinnedViewProperties.id(viewMatcher));
 
     View root = rootViewProvider.get();
-    Iterator<View> matchedViewIterator = Iterables.filter(
-        breadthFirstViewTraversal(root),
-        matcherPredicate).iterator();
+    Optional<List<View>> indexedCandidates = hierarchyIndex.candidates(root, viewMatcher);
+    if (indexedCandidates.isPresent()) {
+      Iterator<View> candidateIterator = indexedCandidates.get().iterator();
+      View indexedMatch = null;
+      while (candidateIterator.hasNext()) {
+        View candidate = candidateIterator.next();
+        if (matcherPredicate.apply(candidate)) {
+          if (null != indexedMatch) {
+            throw ambiguousMatch(root, indexedMatch, candidate, candidateIterator,
+                matcherPredicate);
+          }
+          indexedMatch = candidate;
+        }
+      }
+      if (null != indexedMatch) {
+        return indexedMatch;
+      }
+      // the index may have missed a change, so only a full search can tell there is no match.
+    }
 
-    View matchedView = null;
+    // a single traversal finds the match and, in case there is none, the adapter views to hint at.
+    Iterator<View> viewIterator = breadthFirstViewTraversal(root).iterator();
 
-    while (matchedViewIterator.hasNext()) {
-      if (matchedView != null) {
-        // Ambiguous!
-        throw new AmbiguousViewMatcherException.Builder()
-            .withViewMatcher(viewMatcher)
-            .withRootView(root)
-            .withView1(matchedView)
-            .withView2(matchedViewIterator.next())
-            .withOtherAmbiguousViews(Iterators.toArray(matchedViewIterator, View.class))
-            .build();
-      } else {
-        matchedView = matchedViewIterator.next();
+    View matchedView = null;
+    List<View> adapterViews = null;
+
+    while (viewIterator.hasNext()) {
+      View view = viewIterator.next();
+      if (matcherPredicate.apply(view)) {
+        if (matchedView != null) {
+          // Ambiguous! Only now are the remaining views worth matching.
+          throw ambiguousMatch(root, matchedView, view, viewIterator, matcherPredicate);
+        }
+        matchedView = view;
+        adapterViews = null;
+      } else if (null == matchedView && view instanceof AdapterView) {
+        if (null == adapterViews) {
+          adapterViews = Lists.newArrayList();
+        }
+        adapterViews.add(view);
       }
     }
     if (null == matchedView) {
-      final Predicate<View> adapterViewPredicate = new MatcherPredicateAdapter<View>(
-          ViewMatchers.isAssignableFrom(AdapterView.class));
-      List<View> adapterViews = Lists.newArrayList(
-          Iterables.filter(breadthFirstViewTraversal(root), adapterViewPredicate).iterator());
-      if (adapterViews.isEmpty()) {
+      if (null == adapterViews) {
         throw new NoMatchingViewException.Builder()
             .withViewMatcher(viewMatcher)
             .withRootView(root)
@@ -96,22 +117,36 @@ public final class ViewFinderImpl implements ViewFinder {
     }
   }
 
+  private AmbiguousViewMatcherException ambiguousMatch(View root, View view1, View view2,
+      Iterator<View> remainingViews, Predicate<View> matcherPredicate) {
+    return new AmbiguousViewMatcherException.Builder()
+        .withViewMatcher(viewMatcher)
+        .withRootView(root)
+        .withView1(view1)
+        .withView2(view2)
+        .withOtherAmbiguousViews(
+            Iterators.toArray(Iterators.filter(remainingViews, matcherPredicate), View.class))
+        .build();
+  }
+
   private void checkMainThread() {
     checkState(Thread.currentThread().equals(Looper.getMainLooper().getThread()),
         "Executing a query on the view hierarchy outside of the main thread (on: %s)",
         Thread.currentThread().getName());
   }
 
-  private static class MatcherPredicateAdapter<T> implements Predicate<T> {
-    private final Matcher<? super T> matcher;
+  private static class ViewMatcherPredicate implements Predicate<View> {
+    private final Matcher<View> matcher;
+    private final int pinnedId;
 
-    private MatcherPredicateAdapter(Matcher<? super T> matcher) {
+    private ViewMatcherPredicate(Matcher<View> matcher, int pinnedId) {
       this.matcher = checkNotNull(matcher);
+      this.pinnedId = pinnedId;
     }
 
     @Override
-    public boolean apply(T input) {
-      return matcher.matches(input);
+    public boolean apply(View input) {
+      return (View.NO_ID == pinnedId || input.getId() == pinnedId) && matcher.matches(input);
     }
   }
 }
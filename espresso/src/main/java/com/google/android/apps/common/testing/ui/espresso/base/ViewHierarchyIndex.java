@@ -0,0 +1,244 @@
+package com.google.android.apps.common.testing.ui.espresso.base;
+
+import static com.google.android.apps.common.testing.ui.espresso.util.TreeIterables.breadthFirstViewTraversal;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.google.android.apps.common.testing.ui.espresso.matcher.PinnedViewProperties;
+import com.jameswald.skinnylatte.common.base.Optional;
+import com.jameswald.skinnylatte.common.collect.Lists;
+import com.jameswald.skinnylatte.common.collect.Maps;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnGlobalLayoutListener;
+import android.view.ViewTreeObserver.OnPreDrawListener;
+import android.widget.TextView;
+
+import org.hamcrest.Matcher;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * An optional index of the views in the hierarchy espresso last searched, by id, text, content
+ * description and class.
+ *
+ * Tests often look up several views on the same screen, and each lookup walks the whole hierarchy.
+ * With the index enabled, a view matcher which pins one of these properties (see
+ * {@link PinnedViewProperties}) is only run against the views the index holds for that value.
+ * Each part of the index is built on the first lookup which needs it.
+ *
+ * The index is thrown away whenever the root's window lays out or draws - which adding, removing,
+ * resizing or redrawing any view in it causes. A property changed without either (for example a
+ * content description set on a view which is not redrawn) is not noticed until the next one, so
+ * the index is off by default. Lookups still run the full matcher on every candidate, and fall
+ * back to a full search when the index holds no match.
+ *
+ * The index lets go of the hierarchy once its root leaves the window (noticed on the next lookup)
+ * and when it is disabled.
+ *
+ * Only used on the main thread, apart from {@link #setEnabled}.
+ */
+@Singleton
+public final class ViewHierarchyIndex {
+
+  private final InvalidationListener invalidationListener = new InvalidationListener();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Runnable releaseTask = new Runnable() {
+    @Override
+    public void run() {
+      release();
+    }
+  };
+
+  private volatile boolean enabled = false;
+
+  private WeakReference<View> indexedRoot;
+  private ViewTreeObserver indexedObserver;
+
+  // all null while the index is stale.
+  private List<View> views;
+  private Map<Integer, List<View>> viewsById;
+  private Map<String, List<View>> viewsByText;
+  private Map<String, List<View>> viewsByContentDescription;
+  private Map<Class<?>, List<View>> viewsByClass;
+
+  @Inject
+  public ViewHierarchyIndex() {}
+
+  /**
+   * Turns the index on or off. May be called from any thread - turning it off releases the indexed
+   * hierarchy on the main thread.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      if (Looper.myLooper() == Looper.getMainLooper()) {
+        release();
+      } else {
+        mainHandler.post(releaseTask);
+      }
+    }
+  }
+
+  /**
+   * Returns the views which may match the given matcher, in breadth first order, or absent if the
+   * index cannot narrow down the search.
+   */
+  Optional<List<View>> candidates(View root, Matcher<View> viewMatcher) {
+    checkNotNull(root);
+    checkNotNull(viewMatcher);
+    if (null != indexedRoot && !isAttached(indexedRoot.get())) {
+      release();
+    }
+    if (!enabled || !isAttached(root)) {
+      // without a window, layout and draw never happen - nothing would tell the index it is stale.
+      release();
+      return Optional.absent();
+    }
+
+    int id = PinnedViewProperties.id(viewMatcher);
+    String contentDescription = PinnedViewProperties.contentDescription(viewMatcher);
+    String text = PinnedViewProperties.text(viewMatcher);
+    Class<? extends View> viewClass = PinnedViewProperties.viewClass(viewMatcher);
+    if (View.NO_ID == id && null == contentDescription && null == text && null == viewClass) {
+      return Optional.absent();
+    }
+
+    indexRoot(root);
+    // most selective first.
+    if (View.NO_ID != id) {
+      return Optional.of(candidatesById(id));
+    } else if (null != contentDescription) {
+      return Optional.of(candidatesByContentDescription(contentDescription));
+    } else if (null != text) {
+      return Optional.of(candidatesByText(text));
+    } else {
+      return Optional.of(candidatesByClass(viewClass));
+    }
+  }
+
+  private List<View> candidatesById(int id) {
+    if (null == viewsById) {
+      viewsById = Maps.newHashMap();
+      for (View view : views) {
+        addTo(viewsById, view.getId(), view);
+      }
+    }
+    return orEmpty(viewsById.get(id));
+  }
+
+  private List<View> candidatesByContentDescription(String contentDescription) {
+    if (null == viewsByContentDescription) {
+      viewsByContentDescription = Maps.newHashMap();
+      for (View view : views) {
+        CharSequence description = view.getContentDescription();
+        if (null != description) {
+          addTo(viewsByContentDescription, description.toString(), view);
+        }
+      }
+    }
+    return orEmpty(viewsByContentDescription.get(contentDescription));
+  }
+
+  private List<View> candidatesByText(String text) {
+    if (null == viewsByText) {
+      viewsByText = Maps.newHashMap();
+      for (View view : views) {
+        if (view instanceof TextView) {
+          addTo(viewsByText, ((TextView) view).getText().toString(), view);
+        }
+      }
+    }
+    return orEmpty(viewsByText.get(text));
+  }
+
+  private List<View> candidatesByClass(Class<? extends View> viewClass) {
+    if (null == viewsByClass) {
+      viewsByClass = Maps.newHashMap();
+    }
+    List<View> candidates = viewsByClass.get(viewClass);
+    if (null == candidates) {
+      // assignability is a property of the queried class, so each one gets its own list.
+      candidates = Lists.newArrayList();
+      for (View view : views) {
+        if (viewClass.isInstance(view)) {
+          candidates.add(view);
+        }
+      }
+      viewsByClass.put(viewClass, candidates);
+    }
+    return Collections.unmodifiableList(candidates);
+  }
+
+  private void indexRoot(View root) {
+    ViewTreeObserver observer = root.getViewTreeObserver();
+    if (null == indexedRoot || root != indexedRoot.get() || observer != indexedObserver) {
+      release();
+      observer.addOnGlobalLayoutListener(invalidationListener);
+      observer.addOnPreDrawListener(invalidationListener);
+      indexedRoot = new WeakReference<View>(root);
+      indexedObserver = observer;
+    }
+    if (null == views) {
+      views = Lists.newArrayList(breadthFirstViewTraversal(root));
+    }
+  }
+
+  private void release() {
+    if (null != indexedObserver && indexedObserver.isAlive()) {
+      indexedObserver.removeGlobalOnLayoutListener(invalidationListener);
+      indexedObserver.removeOnPreDrawListener(invalidationListener);
+    }
+    indexedRoot = null;
+    indexedObserver = null;
+    invalidate();
+  }
+
+  private void invalidate() {
+    views = null;
+    viewsById = null;
+    viewsByText = null;
+    viewsByContentDescription = null;
+    viewsByClass = null;
+  }
+
+  private static boolean isAttached(View root) {
+    return null != root && null != root.getWindowToken();
+  }
+
+  private static <K> void addTo(Map<K, List<View>> index, K key, View view) {
+    List<View> keyViews = index.get(key);
+    if (null == keyViews) {
+      keyViews = Lists.newArrayList();
+      index.put(key, keyViews);
+    }
+    keyViews.add(view);
+  }
+
+  private static List<View> orEmpty(List<View> keyViews) {
+    return null == keyViews
+        ? Collections.<View>emptyList() : Collections.unmodifiableList(keyViews);
+  }
+
+  private final class InvalidationListener implements OnGlobalLayoutListener, OnPreDrawListener {
+    @Override
+    public void onGlobalLayout() {
+      invalidate();
+    }
+
+    @Override
+    public boolean onPreDraw() {
+      invalidate();
+      // never cancel the draw.
+      return true;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.google.android.apps.common.testing.ui.espresso.contrib;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource;
+import com.google.android.apps.common.testing.ui.espresso.base.TaskTracker;
+import com.jameswald.skinnylatte.common.base.Optional;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * An implementation of {@link IdlingResource} which is idle while none of the executors it watches
+ * have tasks queued or running.
+ * <p>
+ * Executors are watched either by decorating them - only tasks executed thru the decorated executor
+ * are counted - or, for ThreadPoolExecutors, by adopting them - then every task the pool accepts
+ * from that point on is counted, no matter who submits it. Tasks are counted with lock free
+ * counters and Espresso is told about transitions to idle as soon as the last task finishes, so
+ * nothing polls the executors.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ *   public void setUp() throws Exception {
+ *     super.setUp();
+ *     ExecutorIdlingResource backgroundWork = new ExecutorIdlingResource("BackgroundWork");
+ *     backgroundWork.adopt(FooApplication.getThreadPool());
+ *     FooApplication.setImageExecutor(backgroundWork.decorate(FooApplication.getImageExecutor()));
+ *     Espresso.registerIdlingResources(backgroundWork);
+ *   }
+ * }
+ * </pre>
+ *
+ * Adopting a pool is permanent - the pool keeps counting its tasks after the test is done. Create
+ * one resource per pool and keep it for the lifetime of the test process, or {@link #release} the
+ * resource once it is unregistered, so that adopting the pool again does not leave callbacks from
+ * earlier resources behind.
+ */
+@SuppressWarnings("javadoc")
+public final class ExecutorIdlingResource implements IdlingResource {
+  private final String resourceName;
+  private final TaskTracker decoratorTracker = new TaskTracker();
+  private final List<TaskTracker> trackers = new CopyOnWriteArrayList<TaskTracker>();
+  private final Runnable onTrackerIdle = new Runnable() {
+    @Override
+    public void run() {
+      ResourceCallback callback = resourceCallback;
+      // one tracker went idle, the others may still be busy.
+      if (null != callback && isIdleNow()) {
+        callback.onTransitionToIdle();
+      }
+    }
+  };
+
+  // written from main thread, read from any thread.
+  private volatile ResourceCallback resourceCallback;
+
+  /**
+   * Creates an ExecutorIdlingResource which is not watching any executors yet.
+   *
+   * @param resourceName the resource name this resource should report to Espresso.
+   */
+  public ExecutorIdlingResource(String resourceName) {
+    this.resourceName = checkNotNull(resourceName);
+    watch(decoratorTracker);
+  }
+
+  /**
+   * Returns an executor which passes tasks on to the given executor. This resource is busy while
+   * any of those tasks are queued or running.
+   */
+  public Executor decorate(Executor executor) {
+    return decoratorTracker.decorate(executor);
+  }
+
+  /**
+   * Returns an executor service which passes tasks on to the given service. This resource is busy
+   * while any of those tasks are queued or running.
+   */
+  public ExecutorService decorate(ExecutorService executorService) {
+    return decoratorTracker.decorate(executorService);
+  }
+
+  /**
+   * Watches all tasks given to the pool from now on.
+   * <p>
+   * Only tasks which pass thru the pool's queue can be counted, so pools which may hand a task
+   * straight to a new thread are refused: pools with a bounded or synchronous queue and a maximum
+   * size above their core size (such as {@code Executors.newCachedThreadPool()}) and pools whose
+   * core threads time out. Scheduled pools are refused as well - decorate them instead.
+   * </p>
+   * Still not counted are tasks the pool accepted or was running before this call, and tasks given
+   * to new threads after the pool's core size is raised.
+   *
+   * @throws IllegalArgumentException if the pool's tasks cannot be counted.
+   */
+  public void adopt(ThreadPoolExecutor pool) {
+    checkNotNull(pool);
+    checkArgument(!(pool instanceof ScheduledThreadPoolExecutor),
+        "Cannot count the tasks of a scheduled pool, decorate it instead: %s", pool);
+    checkArgument(!TaskTracker.mayHandOffTasks(pool),
+        "Pool may run tasks without queueing them, cannot count its tasks: %s", pool);
+    Optional<TaskTracker> poolTracker = TaskTracker.forPool(pool);
+    checkArgument(poolTracker.isPresent(), "Cannot count the tasks of: %s", pool);
+    watch(poolTracker.get());
+  }
+
+  /**
+   * Stops watching all executors. Decorated executors and adopted pools keep working, but this
+   * resource no longer hears about their tasks and is idle from now on.
+   */
+  public synchronized void release() {
+    for (TaskTracker tracker : trackers) {
+      tracker.removeIdleTransitionCallback(onTrackerIdle);
+    }
+    trackers.clear();
+  }
+
+  @Override
+  public String getName() {
+    return resourceName;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    for (TaskTracker tracker : trackers) {
+      if (!tracker.isIdleNow()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  private synchronized void watch(TaskTracker tracker) {
+    if (!trackers.contains(tracker)) {
+      trackers.add(tracker);
+      tracker.addIdleTransitionCallback(onTrackerIdle);
+    }
+  }
+}
@@ -0,0 +1,389 @@
+package com.google.android.apps.common.testing.ui.espresso.contrib;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkArgument;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkState;
+
+import com.google.android.apps.common.testing.ui.espresso.IdlingResource;
+import com.jameswald.skinnylatte.common.collect.Maps;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A variant of {@link CountingIdlingResource} for heavily used resources, which spreads its count
+ * over a number of independent counters (stripes) to keep threads from contending on a single one.
+ * <p>
+ * The stripe is picked by the calling thread, not by the transaction, so threads rarely write to
+ * the same counter no matter which keys they use. A stripe never drops below zero: a decrement
+ * whose increment was counted on another thread's stripe takes from that stripe instead. One more
+ * counter, of the stripes which are not empty, is only written when a stripe empties or stops being
+ * empty. The resource is idle while it is zero.
+ * </p>
+ * <p>
+ * Each in-flight transaction may be given a key - for example the type of request being made.
+ * Optionally the resource keeps per key counts, so the transactions in flight can be broken down
+ * (see {@link #getInFlightCounts()}); an increment and its decrement must then use the same key.
+ * It also keeps track of how long it has been busy for, one busy period lasting from its first
+ * increment until it goes idle again.
+ * </p>
+ * <p>
+ * Espresso is told of the transition to idle exactly once per busy period, by the thread which
+ * brings the count of non-empty stripes to zero.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ *   public Response execute(Request request) {
+ *     String key = request.getType();
+ *     networkIdlingResource.increment(key);
+ *     try {
+ *       return realClient.execute(request);
+ *     } finally {
+ *       networkIdlingResource.decrement(key);
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+@SuppressWarnings("javadoc")
+public final class StripedCountingIdlingResource implements IdlingResource {
+  private static final String TAG = "StripedCountingIdlingResource";
+  private static final String UNKEYED = "";
+  private static final int DEFAULT_STRIPES = 16;
+
+  private final String resourceName;
+  private final AtomicLong[] stripes;
+  // never below the number of non-empty stripes: raised before one fills, lowered after it empties.
+  private final AtomicInteger busyStripes = new AtomicInteger(0);
+  // null unless per key counts are tracked.
+  private final ConcurrentMap<String, AtomicInteger> keyCounts;
+  private final boolean debugCounting;
+
+  // written from main thread, read from any thread.
+  private volatile ResourceCallback resourceCallback;
+
+  // guarded by busyPeriodLock - only taken when the resource as a whole goes busy or idle, so
+  // busyStripes leaves and reaches zero under it.
+  private final Object busyPeriodLock = new Object();
+  private boolean busyPeriodOpen = false;
+  private long becameBusyAt = 0;
+  private long becameIdleAt = 0;
+  private int busyPeriods = 0;
+  private long totalBusyMillis = 0;
+  private long longestBusyMillis = 0;
+
+  /**
+   * Creates a StripedCountingIdlingResource with the default number of stripes, without per key
+   * counts or debug tracing.
+   *
+   * @param resourceName the resource name this resource should report to Espresso.
+   */
+  public StripedCountingIdlingResource(String resourceName) {
+    this(resourceName, DEFAULT_STRIPES, false, false);
+  }
+
+  /**
+   * Creates a StripedCountingIdlingResource.
+   *
+   * @param resourceName the resource name this resource should report to Espresso.
+   * @param stripeCount the number of counters to spread threads over.
+   * @param trackKeyCounts if true the count of in-flight transactions is kept per key.
+   * @param debugCounting if true increment & decrement calls will print trace information to logs.
+   */
+  public StripedCountingIdlingResource(String resourceName, int stripeCount,
+      boolean trackKeyCounts, boolean debugCounting) {
+    checkArgument(stripeCount > 0, "stripeCount must be positive: %s", stripeCount);
+    this.resourceName = checkNotNull(resourceName);
+    this.stripes = new AtomicLong[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new AtomicLong(0);
+    }
+    this.keyCounts = trackKeyCounts ? new ConcurrentHashMap<String, AtomicInteger>() : null;
+    this.debugCounting = debugCounting;
+  }
+
+  @Override
+  public String getName() {
+    return resourceName;
+  }
+
+  @Override
+  public boolean isIdleNow() {
+    return 0 == busyStripes.get();
+  }
+
+  @Override
+  public void registerIdleTransitionCallback(ResourceCallback resourceCallback) {
+    this.resourceCallback = resourceCallback;
+  }
+
+  /**
+   * Increments the count of unkeyed in-flight transactions to the resource being monitored.
+   *
+   * This method can be called from any thread.
+   */
+  public void increment() {
+    increment(UNKEYED);
+  }
+
+  /**
+   * Decrements the count of unkeyed in-flight transactions to the resource being monitored.
+   *
+   * @throws IllegalStateException if the total count falls below 0.
+   */
+  public void decrement() {
+    decrement(UNKEYED);
+  }
+
+  /**
+   * Increments the count of in-flight transactions with the given key.
+   *
+   * This method can be called from any thread.
+   */
+  public void increment(String key) {
+    checkNotNull(key);
+    addTo(stripeForCurrentThread());
+    if (null != keyCounts) {
+      int keyVal = keyCounter(key).incrementAndGet();
+      if (debugCounting) {
+        Log.i(TAG, "Resource: " + resourceName + " in-use-count of: " + key
+            + " incremented to: " + keyVal);
+      }
+    } else if (debugCounting) {
+      Log.i(TAG, "Resource: " + resourceName + " count of: " + key + " incremented.");
+    }
+  }
+
+  /**
+   * Decrements the count of in-flight transactions with the given key.
+   *
+   * If this operation results in the total count (or, if tracked, the count of the key) falling
+   * below 0 - an exception is raised.
+   *
+   * @throws IllegalStateException if the count is below 0.
+   */
+  public void decrement(String key) {
+    checkNotNull(key);
+    if (null != keyCounts) {
+      int keyVal = keyCounter(key).decrementAndGet();
+      checkState(keyVal > -1, "Counter of: %s has been corrupted!", key);
+    }
+    long taken = takeFrom(stripeForCurrentThread());
+    while (0 == taken) {
+      // the increment was counted on another thread's stripe.
+      taken = takeFrom(nonEmptyStripe());
+    }
+    long busyMillis = 1 == taken ? removeBusyStripe() : -1;
+    if (busyMillis > -1) {
+      transitionToIdle(busyMillis);
+    } else if (debugCounting) {
+      Log.i(TAG, "Resource: " + resourceName + " count of: " + key + " decremented.");
+    }
+  }
+
+  /**
+   * Returns the count of in-flight transactions per key, for the keys with a non-zero count.
+   * Unkeyed transactions are listed under the empty string.
+   *
+   * @throws IllegalStateException if this resource does not track per key counts.
+   */
+  public Map<String, Integer> getInFlightCounts() {
+    checkState(null != keyCounts, "Per key counts are not tracked by: %s", resourceName);
+    Map<String, Integer> inFlight = Maps.newHashMap();
+    for (Map.Entry<String, AtomicInteger> entry : keyCounts.entrySet()) {
+      int count = entry.getValue().get();
+      if (count > 0) {
+        inFlight.put(entry.getKey(), count);
+      }
+    }
+    return Collections.unmodifiableMap(inFlight);
+  }
+
+  /**
+   * Returns the number of busy periods which have ended so far.
+   */
+  public int getBusyPeriodCount() {
+    synchronized (busyPeriodLock) {
+      return busyPeriods;
+    }
+  }
+
+  /**
+   * Returns the total duration of the busy periods which have ended so far.
+   */
+  public long getTotalBusyMillis() {
+    synchronized (busyPeriodLock) {
+      return totalBusyMillis;
+    }
+  }
+
+  /**
+   * Returns the duration of the longest busy period which has ended so far.
+   */
+  public long getLongestBusyMillis() {
+    synchronized (busyPeriodLock) {
+      return longestBusyMillis;
+    }
+  }
+
+  /**
+   * Prints the current state of this resource to the logcat at info level.
+   */
+  public void dumpStateToLogs() {
+    StringBuilder message = new StringBuilder("Resource: ")
+        .append(resourceName)
+        .append(" in flight: ")
+        .append(inFlight());
+    if (null != keyCounts) {
+      message.append(" inflight transactions: ")
+          .append(getInFlightCounts());
+    }
+    synchronized (busyPeriodLock) {
+      message.append(" busy periods: ")
+          .append(busyPeriods)
+          .append(" total busy time: ")
+          .append(totalBusyMillis)
+          .append(" longest busy time: ")
+          .append(longestBusyMillis);
+      if (0 == becameBusyAt) {
+        Log.i(TAG, message.append(" and has never been busy!").toString());
+      } else if (busyPeriodOpen) {
+        Log.i(TAG, message.append(" and has been busy since: ").append(becameBusyAt).toString());
+      } else {
+        Log.i(TAG, message.append(" and last went idle at: ").append(becameIdleAt).toString());
+      }
+    }
+  }
+
+  private void addTo(AtomicLong stripe) {
+    while (true) {
+      long count = stripe.get();
+      if (count > 0) {
+        if (stripe.compareAndSet(count, count + 1)) {
+          return;
+        }
+      } else {
+        // counted as busy before anyone can take from it.
+        addBusyStripe();
+        if (stripe.compareAndSet(0, 1)) {
+          return;
+        }
+        // filled (and counted) by another thread first.
+        long busyMillis = removeBusyStripe();
+        if (busyMillis > -1) {
+          transitionToIdle(busyMillis);
+        }
+      }
+    }
+  }
+
+  // returns the count the stripe had before, or 0 if nothing could be taken from it.
+  private long takeFrom(AtomicLong stripe) {
+    while (true) {
+      long count = stripe.get();
+      if (count <= 0) {
+        return 0;
+      }
+      if (stripe.compareAndSet(count, count - 1)) {
+        return count;
+      }
+    }
+  }
+
+  private AtomicLong nonEmptyStripe() {
+    while (true) {
+      for (AtomicLong stripe : stripes) {
+        if (stripe.get() > 0) {
+          return stripe;
+        }
+      }
+      // a stripe may only be about to fill.
+      checkState(busyStripes.get() > 0, "Counter has been corrupted!");
+    }
+  }
+
+  private void addBusyStripe() {
+    while (true) {
+      int busy = busyStripes.get();
+      if (0 == busy) {
+        synchronized (busyPeriodLock) {
+          if (busyStripes.compareAndSet(0, 1)) {
+            busyPeriodOpen = true;
+            becameBusyAt = SystemClock.uptimeMillis();
+            return;
+          }
+        }
+      } else if (busyStripes.compareAndSet(busy, busy + 1)) {
+        return;
+      }
+    }
+  }
+
+  // returns the length of the busy period this ended, or -1 if the resource is still busy.
+  private long removeBusyStripe() {
+    while (true) {
+      int busy = busyStripes.get();
+      checkState(busy > 0, "Counter has been corrupted!");
+      if (1 == busy) {
+        synchronized (busyPeriodLock) {
+          if (busyStripes.compareAndSet(1, 0)) {
+            busyPeriodOpen = false;
+            becameIdleAt = SystemClock.uptimeMillis();
+            long busyMillis = becameIdleAt - becameBusyAt;
+            busyPeriods++;
+            totalBusyMillis += busyMillis;
+            longestBusyMillis = Math.max(longestBusyMillis, busyMillis);
+            return busyMillis;
+          }
+        }
+      } else if (busyStripes.compareAndSet(busy, busy - 1)) {
+        return -1;
+      }
+    }
+  }
+
+  private void transitionToIdle(long busyMillis) {
+    // we've gone from non-zero to zero. That means we're idle now! Tell espresso.
+    ResourceCallback callback = resourceCallback;
+    if (null != callback) {
+      callback.onTransitionToIdle();
+    }
+    if (debugCounting) {
+      Log.i(TAG, "Resource: " + resourceName + " went idle! (Time spent not idle: "
+          + busyMillis + ")");
+    }
+  }
+
+  private long inFlight() {
+    long inFlight = 0;
+    for (AtomicLong stripe : stripes) {
+      inFlight += stripe.get();
+    }
+    return inFlight;
+  }
+
+  private AtomicLong stripeForCurrentThread() {
+    long id = Thread.currentThread().getId();
+    return stripes[(int) ((id ^ (id >>> 32)) & Integer.MAX_VALUE) % stripes.length];
+  }
+
+  private AtomicInteger keyCounter(String key) {
+    AtomicInteger counter = keyCounts.get(key);
+    if (null == counter) {
+      AtomicInteger newCounter = new AtomicInteger(0);
+      counter = keyCounts.putIfAbsent(key, newCounter);
+      if (null == counter) {
+        counter = newCounter;
+      }
+    }
+    return counter;
+  }
+}
@@ -0,0 +1,156 @@
+package com.google.android.apps.common.testing.ui.espresso.matcher;
+
+import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
+
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.IsAssignableFromMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithContentDescriptionMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithIdMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithTextMatcher;
+import com.jameswald.skinnylatte.common.collect.Lists;
+
+import android.util.Log;
+import android.view.View;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.core.AllOf;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * An allOf view matcher which runs its cheap parts first.
+ *
+ * Hamcrest's allOf runs its parts in the order they were written, so in
+ * {@code allOf(isDisplayed(), withText("OK"))} the on screen check runs against every view the
+ * text check would have ruled out. The property matchers of {@link ViewMatchers} with a single
+ * known value (withId, withText, withContentDescription with a value, isAssignableFrom) are cheap
+ * and safe to run against any view, so they are moved to the front. Every other part keeps its
+ * written position relative to the others, so a part written to guard the ones after it (for
+ * example by checking the type of the view or its parent) still runs before them. The description
+ * is that of the original allOf.
+ *
+ * Espresso applies this to every onView matcher. Only public methods of this class are
+ * considered public API of the test framework.
+ */
+public final class CostOrderedAllOf extends BaseMatcher<View> {
+  private static final String TAG = "CostOrderedAllOf";
+
+  // hamcrest does not expose the parts of an allOf.
+  private static final Field allOfMatchersField;
+
+  static {
+    Field matchersField = null;
+    try {
+      matchersField = AllOf.class.getDeclaredField("matchers");
+      matchersField.setAccessible(true);
+    } catch (NoSuchFieldException nsfe) {
+      Log.w(TAG, "AllOf internals unavailable, allOf parts cannot be inspected.", nsfe);
+      matchersField = null;
+    } catch (SecurityException se) {
+      Log.w(TAG, "AllOf internals unavailable, allOf parts cannot be inspected.", se);
+      matchersField = null;
+    }
+    allOfMatchersField = matchersField;
+  }
+
+  private final Matcher<View> original;
+  private final Matcher<?>[] orderedParts;
+
+  private CostOrderedAllOf(Matcher<View> original, Matcher<?>[] orderedParts) {
+    this.original = original;
+    this.orderedParts = orderedParts;
+  }
+
+  /**
+   * Returns a matcher which matches the same views as the given one, with the cheap parts of any
+   * allOf in it moved to the front. Returns the given matcher if there is nothing to reorder.
+   */
+  @SuppressWarnings("unchecked")
+  public static Matcher<View> reorder(Matcher<View> matcher) {
+    checkNotNull(matcher);
+    if (!(matcher instanceof AllOf)) {
+      return matcher;
+    }
+    List<?> parts = partsOf(matcher);
+    if (null == parts) {
+      return matcher;
+    }
+    for (Object part : parts) {
+      if (!(part instanceof Matcher)) {
+        // not a shape we understand, leave the allOf alone.
+        return matcher;
+      }
+    }
+    boolean changed = false;
+    List<Matcher<?>> orderedParts = Lists.newArrayList();
+    for (int i = 0; i < parts.size(); i++) {
+      Object part = parts.get(i);
+      if (isCheap(part)) {
+        changed |= orderedParts.size() != i;
+        orderedParts.add((Matcher<?>) part);
+      }
+    }
+    for (int i = 0; i < parts.size(); i++) {
+      Object part = parts.get(i);
+      if (!isCheap(part)) {
+        // the parts of an allOf of view matchers match views too.
+        Matcher<?> orderedPart = reorder((Matcher<View>) part);
+        changed |= orderedPart != part || orderedParts.size() != i;
+        orderedParts.add(orderedPart);
+      }
+    }
+    if (!changed) {
+      return matcher;
+    }
+    return new CostOrderedAllOf(
+        matcher, orderedParts.toArray(new Matcher<?>[orderedParts.size()]));
+  }
+
+  /**
+   * Returns the parts of the given allOf in their original order, or null if the matcher is not
+   * an allOf or its parts cannot be read.
+   */
+  static List<?> partsOf(Matcher<?> matcher) {
+    if (matcher instanceof CostOrderedAllOf) {
+      return partsOf(((CostOrderedAllOf) matcher).original);
+    }
+    if (!(matcher instanceof AllOf) || null == allOfMatchersField) {
+      return null;
+    }
+    Object matchers;
+    try {
+      matchers = allOfMatchersField.get(matcher);
+    } catch (IllegalAccessException iae) {
+      Log.w(TAG, "Could not read the parts of: " + matcher, iae);
+      return null;
+    }
+    if (!(matchers instanceof Iterable)) {
+      return null;
+    }
+    return Lists.newArrayList((Iterable<?>) matchers);
+  }
+
+  private static boolean isCheap(Object part) {
+    return part instanceof WithIdMatcher
+        || part instanceof WithTextMatcher
+        || part instanceof WithContentDescriptionMatcher
+        || part instanceof IsAssignableFromMatcher;
+  }
+
+  @Override
+  public boolean matches(Object item) {
+    for (Matcher<?> part : orderedParts) {
+      if (!part.matches(item)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void describeTo(Description description) {
+    original.describeTo(description);
+  }
+}
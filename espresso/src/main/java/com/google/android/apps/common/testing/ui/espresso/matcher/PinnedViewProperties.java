@@ -0,0 +1,81 @@
+package com.google.android.apps.common.testing.ui.espresso.matcher;
+
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.IsAssignableFromMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithContentDescriptionMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithIdMatcher;
+import com.google.android.apps.common.testing.ui.espresso.matcher.ViewMatchers.WithTextMatcher;
+
+import android.view.View;
+
+import org.hamcrest.Matcher;
+
+import java.util.List;
+
+/**
+ * Works out which property values, if any, a view matcher requires its views to have.
+ *
+ * A matcher pins a property if it was made by {@link ViewMatchers#withId(int)},
+ * {@link ViewMatchers#withText(String)}, {@link ViewMatchers#withContentDescription(String)} or
+ * {@link ViewMatchers#isAssignableFrom(Class)}, or is an allOf with such a matcher among its
+ * (possibly nested) parts. Every view it matches has that property value, so a search for it only
+ * has to try the views carrying the value.
+ *
+ * Only used by espresso's own view lookups - not public API of the test framework.
+ */
+public final class PinnedViewProperties {
+  private PinnedViewProperties() {}
+
+  /**
+   * Returns the id every view matched by the given matcher must have, or {@link View#NO_ID} if
+   * the matcher does not pin one.
+   */
+  public static int id(Matcher<?> matcher) {
+    WithIdMatcher pinning = find(matcher, WithIdMatcher.class);
+    return null == pinning ? View.NO_ID : pinning.getId();
+  }
+
+  /**
+   * Returns the text every view matched by the given matcher must display, or null if the
+   * matcher does not pin one.
+   */
+  public static String text(Matcher<?> matcher) {
+    WithTextMatcher pinning = find(matcher, WithTextMatcher.class);
+    return null == pinning ? null : pinning.getText();
+  }
+
+  /**
+   * Returns the content description every view matched by the given matcher must have, or null
+   * if the matcher does not pin one.
+   */
+  public static String contentDescription(Matcher<?> matcher) {
+    WithContentDescriptionMatcher pinning = find(matcher, WithContentDescriptionMatcher.class);
+    return null == pinning ? null : pinning.getContentDescription();
+  }
+
+  /**
+   * Returns the class every view matched by the given matcher must be assignable to, or null if
+   * the matcher does not pin one.
+   */
+  public static Class<? extends View> viewClass(Matcher<?> matcher) {
+    IsAssignableFromMatcher pinning = find(matcher, IsAssignableFromMatcher.class);
+    return null == pinning ? null : pinning.getViewClass();
+  }
+
+  private static <M> M find(Matcher<?> matcher, Class<M> pinningType) {
+    if (pinningType.isInstance(matcher)) {
+      return pinningType.cast(matcher);
+    }
+    List<?> parts = CostOrderedAllOf.partsOf(matcher);
+    if (null != parts) {
+      for (Object part : parts) {
+        if (part instanceof Matcher) {
+          M pinning = find((Matcher<?>) part, pinningType);
+          if (null != pinning) {
+            return pinning;
+          }
+        }
+      }
+    }
+    return null;
+  }
+}
@@ -41,19 +41,8 @@ public final class ViewMatchers {
    * class. Some versions of Hamcrest make the generic typing of this a nightmare, so we have a
    * special case for our users.
    */
-  public static Matcher<View> isAssignableFrom(final Class<? extends View> clazz) {
-    checkNotNull(clazz);
-    return new TypeSafeMatcher<View>() {
-      @Override
-      public void describeTo(Description description) {
-        description.appendText("is assignable from class: " + clazz);
-      }
-
-      @Override
-      public boolean matchesSafely(View view) {
-        return clazz.isAssignableFrom(view.getClass());
-      }
-    };
+  public static Matcher<View> isAssignableFrom(Class<? extends View> clazz) {
+    return new IsAssignableFromMatcher(checkNotNull(clazz));
   }
 
  /**
@@ -239,7 +228,10 @@ public final class ViewMatchers {
    * @param text the text to match on.
    */
   public static Matcher<View> withContentDescription(String text) {
-    return withContentDescription(is(text));
+    if (null == text) {
+      return withContentDescription(is(text));
+    }
+    return new WithContentDescriptionMatcher(text);
   }
 
   /**
@@ -271,7 +263,7 @@ public final class ViewMatchers {
    * @param id the resource id.
    */
   public static Matcher<View> withId(int id) {
-    return withId(is(id));
+    return new WithIdMatcher(id);
   }
 
   /**
@@ -354,7 +346,10 @@ public final class ViewMatchers {
    * Sugar for withText(is("string")).
    */
   public static Matcher<View> withText(String text) {
-    return withText(is(text));
+    if (null == text) {
+      return withText(is(text));
+    }
+    return new WithTextMatcher(text);
   }
 
   /**
@@ -789,5 +784,107 @@ public final class ViewMatchers {
       throw new AssertionFailedError(description.toString());
     }
   }
-}
 
+  /*
+   * The matchers below each require a single known property value, which view lookups can narrow
+   * their search by (see PinnedViewProperties). They match exactly like their general forms.
+   */
+
+  static final class IsAssignableFromMatcher extends TypeSafeMatcher<View> {
+    private final Class<? extends View> clazz;
+
+    private IsAssignableFromMatcher(Class<? extends View> clazz) {
+      this.clazz = clazz;
+    }
+
+    Class<? extends View> getViewClass() {
+      return clazz;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("is assignable from class: " + clazz);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return clazz.isAssignableFrom(view.getClass());
+    }
+  }
+
+  static final class WithContentDescriptionMatcher extends TypeSafeMatcher<View> {
+    private final String contentDescription;
+    private final Matcher<String> contentDescriptionMatcher;
+
+    private WithContentDescriptionMatcher(String contentDescription) {
+      this.contentDescription = contentDescription;
+      this.contentDescriptionMatcher = is(contentDescription);
+    }
+
+    String getContentDescription() {
+      return contentDescription;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("with content description: ");
+      contentDescriptionMatcher.describeTo(description);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return contentDescriptionMatcher.matches(view.getContentDescription());
+    }
+  }
+
+  static final class WithTextMatcher extends BoundedMatcher<View, TextView> {
+    private final String text;
+    private final Matcher<String> textMatcher;
+
+    private WithTextMatcher(String text) {
+      super(TextView.class);
+      this.text = text;
+      this.textMatcher = is(text);
+    }
+
+    String getText() {
+      return text;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("with text: ");
+      textMatcher.describeTo(description);
+    }
+
+    @Override
+    public boolean matchesSafely(TextView textView) {
+      return text.equals(textView.getText().toString());
+    }
+  }
+
+  static final class WithIdMatcher extends TypeSafeMatcher<View> {
+    private final int id;
+    private final Matcher<Integer> idMatcher;
+
+    private WithIdMatcher(int id) {
+      this.id = id;
+      this.idMatcher = is(id);
+    }
+
+    int getId() {
+      return id;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      description.appendText("with id: ");
+      idMatcher.describeTo(description);
+    }
+
+    @Override
+    public boolean matchesSafely(View view) {
+      return view.getId() == id;
+    }
+  }
+}
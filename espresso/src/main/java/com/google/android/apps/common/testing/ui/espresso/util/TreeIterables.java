@@ -3,9 +3,7 @@ package com.google.android.apps.common.testing.ui.espresso.util;
 import static com.jameswald.skinnylatte.common.base.Preconditions.checkNotNull;
 
 import com.jameswald.skinnylatte.common.annotations.VisibleForTesting;
-import com.jameswald.skinnylatte.common.base.Function;
 import com.jameswald.skinnylatte.common.collect.AbstractIterator;
-import com.jameswald.skinnylatte.common.collect.Iterables;
 import com.jameswald.skinnylatte.common.collect.Lists;
 import com.jameswald.skinnylatte.common.collect.Maps;
 
@@ -13,10 +11,8 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,7 +27,6 @@ import java.util.Map;
  * Only public methods of this utility class are considered public API of the test framework.
  */
 public final class TreeIterables {
-  private static final TreeViewer<View> VIEW_TREE_VIEWER = new ViewTreeViewer();
 
   private TreeIterables() { }
 
@@ -44,19 +39,23 @@ public final class TreeIterables {
    * @return An iterable of ViewAndDistance containing the view tree in a depth first order with
    *   the distance of a given node from the root.
    */
-  public static Iterable<ViewAndDistance> depthFirstViewTraversalWithDistance(View root) {
-    final DistanceRecordingTreeViewer<View> distanceRecorder =
-        new DistanceRecordingTreeViewer<View>(root, VIEW_TREE_VIEWER);
-
-
-    return Iterables.transform(
-        depthFirstTraversal(root, distanceRecorder),
-        new Function<View, ViewAndDistance>() {
+  public static Iterable<ViewAndDistance> depthFirstViewTraversalWithDistance(final View root) {
+    checkNotNull(root);
+    return new Iterable<ViewAndDistance>() {
+      @Override
+      public Iterator<ViewAndDistance> iterator() {
+        final ViewTraversal traversal = new ViewTraversal(root, TraversalStrategy.DEPTH_FIRST);
+        return new AbstractIterator<ViewAndDistance>() {
           @Override
-          public ViewAndDistance apply(View view) {
-            return new ViewAndDistance(view, distanceRecorder.getDistance(view));
+          public ViewAndDistance computeNext() {
+            if (!traversal.advance()) {
+              return endOfData();
+            }
+            return new ViewAndDistance(traversal.currentView, traversal.currentDistance);
           }
-        });
+        };
+      }
+    };
   }
 
   /**
@@ -72,7 +71,7 @@ public final class TreeIterables {
    * @param root the non-null, root view.
    */
   public static Iterable<View> depthFirstViewTraversal(View root) {
-    return depthFirstTraversal(root, VIEW_TREE_VIEWER);
+    return new ViewTraversalIterable(root, TraversalStrategy.DEPTH_FIRST);
   }
 
   /**
@@ -88,7 +87,7 @@ public final class TreeIterables {
    * @param root the non-null, root view.
    */
   public static Iterable<View> breadthFirstViewTraversal(View root) {
-    return breadthFirstTraversal(root, VIEW_TREE_VIEWER);
+    return new ViewTraversalIterable(root, TraversalStrategy.BREADTH_FIRST);
   }
 
   /**
@@ -174,27 +173,116 @@ public final class TreeIterables {
   }
 
   /**
-   * A TreeView providing access to the children of a given View.
-   *
-   * The only way views can have children is if they are a subclass of
-   * ViewGroup.
+   * Converts a view hierarchy into an Iterable of its views presented in a given traversal order.
    */
-  @VisibleForTesting
-  static class ViewTreeViewer implements TreeViewer<View> {
+  private static class ViewTraversalIterable implements Iterable<View> {
+    private final View root;
+    private final TraversalStrategy traversalStrategy;
+
+    private ViewTraversalIterable(View root, TraversalStrategy traversalStrategy) {
+      this.root = checkNotNull(root);
+      this.traversalStrategy = checkNotNull(traversalStrategy);
+    }
+
     @Override
-    public Collection<View> children(View view) {
-      checkNotNull(view);
-      if (view instanceof ViewGroup) {
-        ViewGroup group = (ViewGroup) view;
+    public Iterator<View> iterator() {
+      final ViewTraversal traversal = new ViewTraversal(root, traversalStrategy);
+      return new AbstractIterator<View>() {
+        @Override
+        public View computeNext() {
+          return traversal.advance() ? traversal.currentView : endOfData();
+        }
+      };
+    }
+  }
+
+  /**
+   * Walks a view hierarchy without allocating anything per view.
+   *
+   * The views waiting to be visited are kept in a ring buffer, next to their distance from the
+   * root in a parallel array. A visited ViewGroup has its children read straight off getChildAt
+   * and pushed onto the front of the buffer (depth first) or appended to its back (breadth first).
+   * The buffers only grow when a view has more pending siblings than ever seen before in this
+   * traversal.
+   */
+  private static final class ViewTraversal {
+    // must be a power of two.
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean depthFirst;
+    private View[] pendingViews = new View[INITIAL_CAPACITY];
+    private int[] pendingDistances = new int[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+
+    private View currentView;
+    private int currentDistance;
+
+    private ViewTraversal(View root, TraversalStrategy traversalStrategy) {
+      this.depthFirst = TraversalStrategy.DEPTH_FIRST == traversalStrategy;
+      pendingViews[0] = checkNotNull(root);
+      size = 1;
+    }
+
+    /**
+     * Moves on to the next view, returning false once every view has been visited.
+     */
+    boolean advance() {
+      if (0 == size) {
+        currentView = null;
+        return false;
+      }
+      currentView = checkNotNull(pendingViews[head], "Null items not allowed!");
+      currentDistance = pendingDistances[head];
+      pendingViews[head] = null;
+      head = (head + 1) & (pendingViews.length - 1);
+      size--;
+
+      if (currentView instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup) currentView;
         int childCount = group.getChildCount();
-        List<View> children = Lists.newArrayList();
-        for (int i = 0; i < childCount; i++) {
-          children.add(group.getChildAt(i));
+        ensureCapacity(size + childCount);
+        int mask = pendingViews.length - 1;
+        int childDistance = currentDistance + 1;
+        if (depthFirst) {
+          // push in reverse, so the first child ends up at the head.
+          for (int i = childCount - 1; i >= 0; i--) {
+            head = (head - 1) & mask;
+            pendingViews[head] = group.getChildAt(i);
+            pendingDistances[head] = childDistance;
+          }
+        } else {
+          for (int i = 0; i < childCount; i++) {
+            int tail = (head + size + i) & mask;
+            pendingViews[tail] = group.getChildAt(i);
+            pendingDistances[tail] = childDistance;
+          }
         }
-        return children;
-      } else {
-        return Collections.<View>emptyList();
+        size += childCount;
+      }
+      return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+      int oldCapacity = pendingViews.length;
+      if (capacity <= oldCapacity) {
+        return;
+      }
+      int newCapacity = oldCapacity;
+      while (newCapacity < capacity) {
+        newCapacity <<= 1;
       }
+      View[] views = new View[newCapacity];
+      int[] distances = new int[newCapacity];
+      // unwrap the ring so the pending views start at index 0 again.
+      int firstPart = Math.min(size, oldCapacity - head);
+      System.arraycopy(pendingViews, head, views, 0, firstPart);
+      System.arraycopy(pendingViews, 0, views, firstPart, size - firstPart);
+      System.arraycopy(pendingDistances, head, distances, 0, firstPart);
+      System.arraycopy(pendingDistances, 0, distances, firstPart, size - firstPart);
+      pendingViews = views;
+      pendingDistances = distances;
+      head = 0;
     }
   }
 